@@ -31,8 +31,10 @@ package org.bytedeco.javacpp_video_stabilization;
 
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 
 import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp_video_stabilization.video.StabilizationLog;
 import org.bytedeco.javacpp_video_stabilization.video.VideoStabilization;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FrameGrabber;
@@ -49,6 +51,14 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // the engine logs to logcat
+        StabilizationLog.setLogger(new StabilizationLog.Logger() {
+            @Override
+            public void d(String tag, String msg) {
+                Log.d(tag, msg);
+            }
+        });
+
         String videoPath = "<Video Source path>";
         FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoPath);
         try {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode stage: time to decode a frame of a synthetic clip with
+ * {@link VideoStabilization.MyFrameSource}, decoder thread included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DecodeBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private File mClip;
+    private MatPool mMatPool;
+
+    @Setup
+    public void setUp() throws Exception {
+        int[] size = SyntheticClip.size(resolution);
+        mClip = SyntheticClip.write(size[0], size[1]);
+        mMatPool = new MatPool(4 * VideoStabConfig.PIPELINE_DEPTH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mMatPool.clear();
+        mClip.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClip.FRAMES)
+    public int decode() {
+        VideoStabilization.MyFrameSource source = new VideoStabilization.MyFrameSource(
+                mClip.getPath(), VideoStabConfig.PIPELINE_DEPTH, null, mMatPool,
+                StabilizationMetrics.DISABLED);
+        int frames = 0;
+        try {
+            Mat frame;
+            while (!(frame = source.nextFrame()).empty()) {
+                frames++;
+                source.releaseFrame(frame);
+            }
+        } finally {
+            source.release();
+        }
+        return frames;
+    }
+}
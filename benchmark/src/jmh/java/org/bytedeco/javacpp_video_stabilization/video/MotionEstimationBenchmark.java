@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.BoolPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_videostab;
+import org.bytedeco.javacpp.opencv_videostab.MotionEstimatorRansacL2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.CV_32FC2;
+
+/**
+ * Global motion estimation: {@link MotionEstimatorRansacL2} for each motion model, on
+ * {@link VideoStabConfig#NKPS} matched keypoints of which a fifth are outliers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MotionEstimationBenchmark {
+
+    @Param({"TRANSLATION", "TRANSLATION_AND_SCALE", "ROTATION", "RIGID", "SIMILARITY",
+            "AFFINE", "HOMOGRAPHY"})
+    public String motionModel;
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final double OUTLIERS = 0.2;
+
+    private MotionEstimatorRansacL2 mEstimator;
+    private Mat mPoints0;
+    private Mat mPoints1;
+    private final BoolPointer mOk = new BoolPointer(1);
+
+    @Setup
+    public void setUp() {
+        mEstimator = new MotionEstimatorRansacL2(model(motionModel));
+
+        // the points of the second frame are moved by a small rotation and translation
+        Random random = new Random(42);
+        int count = VideoStabConfig.NKPS;
+        double angle = Math.toRadians(0.5);
+        mPoints0 = new Mat(count, 1, CV_32FC2);
+        mPoints1 = new Mat(count, 1, CV_32FC2);
+        FloatIndexer points0 = mPoints0.createIndexer();
+        FloatIndexer points1 = mPoints1.createIndexer();
+        for (int i = 0; i < count; i++) {
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            double x1 = Math.cos(angle) * x - Math.sin(angle) * y + 3.5;
+            double y1 = Math.sin(angle) * x + Math.cos(angle) * y - 2.0;
+            if (random.nextDouble() < OUTLIERS) {
+                x1 = random.nextFloat() * WIDTH;
+                y1 = random.nextFloat() * HEIGHT;
+            }
+            points0.put(i, 0, 0, x);
+            points0.put(i, 0, 1, y);
+            points1.put(i, 0, 0, (float) (x1 + random.nextGaussian() * 0.5));
+            points1.put(i, 0, 1, (float) (y1 + random.nextGaussian() * 0.5));
+        }
+        points0.release();
+        points1.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPoints0.release();
+        mPoints1.release();
+    }
+
+    @Benchmark
+    public boolean estimate() {
+        Mat motion = mEstimator.estimate(mPoints0, mPoints1, mOk);
+        motion.release();
+        return mOk.get();
+    }
+
+    private static int model(String name) {
+        switch (name) {
+            case "TRANSLATION":
+                return opencv_videostab.MM_TRANSLATION;
+            case "TRANSLATION_AND_SCALE":
+                return opencv_videostab.MM_TRANSLATION_AND_SCALE;
+            case "ROTATION":
+                return opencv_videostab.MM_ROTATION;
+            case "RIGID":
+                return opencv_videostab.MM_RIGID;
+            case "SIMILARITY":
+                return opencv_videostab.MM_SIMILARITY;
+            case "AFFINE":
+                return opencv_videostab.MM_AFFINE;
+            case "HOMOGRAPHY":
+                return opencv_videostab.MM_HOMOGRAPHY;
+            default:
+                throw new IllegalArgumentException("Unknown motion model " + name);
+        }
+    }
+}
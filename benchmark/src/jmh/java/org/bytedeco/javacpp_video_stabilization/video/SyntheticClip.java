@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Point2f;
+import org.bytedeco.javacpp.opencv_core.Scalar;
+import org.bytedeco.javacpp.opencv_core.Size;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.bytedeco.javacpp.opencv_core.BORDER_REFLECT;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_CUBIC;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_LINEAR;
+import static org.bytedeco.javacpp.opencv_imgproc.getRotationMatrix2D;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static org.bytedeco.javacpp.opencv_imgproc.warpAffine;
+
+/**
+ * Shaky synthetic clips, the inputs of the benchmarks.
+ *
+ * <p>
+ *     A frame is a textured image moved by a small translation and rotation, the shake, which
+ *     only depends on the index of the frame. The texture comes from a seeded random generator,
+ *     so every run of a benchmark measures the same pixels.
+ * </p>
+ */
+final class SyntheticClip {
+
+    /** frames of the clips */
+    static final int FRAMES = 60;
+
+    /** frame rate of the clips */
+    static final double FRAME_RATE = 30;
+
+    private static final long SEED = 0x5EED;
+
+    /** the texture is made of blobs of this size, they give corners to the detector */
+    private static final int CELL = 8;
+
+    private SyntheticClip() {
+    }
+
+    /**
+     * @param resolution width x height, e.g. 1280x720.
+     * @return width and height.
+     */
+    static int[] size(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * @return the still image the frames are made of.
+     */
+    static Mat texture(int width, int height) {
+        int cols = Math.max(1, width / CELL);
+        int rows = Math.max(1, height / CELL);
+        byte[] noise = new byte[cols * rows * 3];
+        new Random(SEED).nextBytes(noise);
+
+        Mat cells = new Mat(rows, cols, CV_8UC3);
+        cells.data().put(noise);
+        Mat texture = new Mat();
+        resize(cells, texture, new Size(width, height), 0, 0, INTER_CUBIC);
+        cells.release();
+        return texture;
+    }
+
+    /**
+     * @param texture see {@link #texture(int, int)}.
+     * @param index index of the frame in the clip.
+     * @return new frame, the texture moved by the shake of this frame.
+     */
+    static Mat frame(Mat texture, int index) {
+        double angle = 0.5 * Math.sin(0.5 * index);
+        double dx = 4 * Math.sin(0.9 * index) + 2 * Math.sin(2.3 * index);
+        double dy = 3 * Math.cos(0.7 * index);
+
+        Mat shake = getRotationMatrix2D(new Point2f(texture.cols() / 2f, texture.rows() / 2f), angle, 1);
+        DoubleIndexer indexer = shake.createIndexer();
+        indexer.put(0, 2, indexer.get(0, 2) + dx);
+        indexer.put(1, 2, indexer.get(1, 2) + dy);
+        indexer.release();
+
+        Mat frame = new Mat();
+        warpAffine(texture, frame, shake, texture.size(), INTER_LINEAR, BORDER_REFLECT, new Scalar());
+        shake.release();
+        return frame;
+    }
+
+    /**
+     * Encodes a clip of {@link #FRAMES} frames to a temporary file.
+     *
+     * @return the clip, deleted by the caller.
+     */
+    static File write(int width, int height) throws Exception {
+        VideoStabConfig config = new VideoStabConfig();
+        File clip = File.createTempFile("clip_" + width + "x" + height, "." + config.getOutputFormat());
+        Mat texture = texture(width, height);
+        FrameEncoder encoder = new FFmpegFrameEncoder(config);
+        try {
+            encoder.start(clip.getPath(), width, height, FRAME_RATE);
+            for (int i = 0; i < FRAMES; i++) {
+                Mat frame = frame(texture, i);
+                encoder.encode(frame);
+                frame.release();
+            }
+        } finally {
+            encoder.stop();
+            texture.release();
+        }
+        return clip;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_videostab;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warp stage: {@link FrameWarper} stabilizes, trims and rotates a frame in one warp, the
+ * rotation of the output included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WarpBenchmark {
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0", "90"})
+    public int rotation;
+
+    @Param({"false", "true"})
+    public boolean perspective;
+
+    private MatPool mMatPool;
+    private Mat mFrame;
+    private FrameWarper mWarper;
+
+    @Setup
+    public void setUp() {
+        int[] size = SyntheticClip.size(resolution);
+        Mat texture = SyntheticClip.texture(size[0], size[1]);
+        mFrame = SyntheticClip.frame(texture, 0);
+        texture.release();
+
+        VideoStabConfig config = new VideoStabConfig();
+        config.setMotionMode(perspective ? opencv_videostab.MM_HOMOGRAPHY : opencv_videostab.MM_AFFINE);
+        double[] stabilization = new double[MotionMath.SIZE];
+        MotionMath.identity(stabilization, 0);
+        stabilization[2] = 3.5;
+        stabilization[5] = -2.25;
+        mMatPool = new MatPool(1);
+        mWarper = new FrameWarper(config, stabilization, rotation, mMatPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mWarper.release();
+        mFrame.release();
+        mMatPool.clear();
+    }
+
+    @Benchmark
+    public int warp() {
+        Mat warped = mWarper.warp(0, mFrame);
+        int rows = warped.rows();
+        mMatPool.release(warped);
+        return rows;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.cli;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp_video_stabilization.video.OnStabilizedListener;
+import org.bytedeco.javacpp_video_stabilization.video.Rendition;
+import org.bytedeco.javacpp_video_stabilization.video.StabilizationLog;
+import org.bytedeco.javacpp_video_stabilization.video.StabilizationMetrics;
+import org.bytedeco.javacpp_video_stabilization.video.VideoStabConfig;
+import org.bytedeco.javacpp_video_stabilization.video.VideoStabilization;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line of the stabilization, for headless Linux servers.
+ *
+ * <pre>
+ *     stabilize [options] &lt;source video&gt; &lt;destination directory&gt;
+ * </pre>
+ *
+ * <p>
+ *     Exits with 0 when the video has been stabilized, 1 when the job failed, 2 on a bad command
+ *     line and 3 when the job was cancelled by its timeout.
+ * </p>
+ */
+public final class StabilizeCommand {
+
+    private static final String USAGE = "Usage: stabilize [options] <source video> <destination directory>\n"
+            + "  --online            single pass, frame N is written once frame N + radius is read\n"
+            + "  --preview           low resolution preview, its motions are kept in the motion cache\n"
+            + "  --radius <frames>   radius of the smoothing, default " + VideoStabConfig.STAB_RADIUS + "\n"
+            + "  --trim <ratio>      part of each border trimmed, default " + VideoStabConfig.TRIM_RATIO + "\n"
+            + "  --rotate <degrees>  clockwise rotation of the output, a multiple of 90\n"
+            + "  --start <seconds>   stabilize from this time, the frames before are only decoded\n"
+            + "  --end <seconds>     stabilize until this time\n"
+            + "  --size <w>x<h>      size the output fits in, scaled down in the warp\n"
+            + "  --rendition <w>x<h>:<path> write this rendition instead of the output, repeatable\n"
+            + "  --threads <n>       threads of the motion estimation\n"
+            + "  --motion-cache <dir> keep the estimated motions between runs\n"
+            + "  --no-passthrough    leave out the audio and the metadata of the source\n"
+            + "  --timeout <seconds> cancel the job after this time\n"
+            + "  --metrics           print the timings of each stage at the end\n"
+            + "  --quiet             no log\n";
+
+    private StabilizeCommand() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * @return exit code of the command.
+     */
+    static int run(String[] args) {
+        VideoStabConfig config = new VideoStabConfig();
+        boolean online = false;
+        boolean preview = false;
+        boolean metrics = false;
+        int rotate = 0;
+        long timeout = 0;
+        long start = 0;
+        long end = 0;
+        opencv_core.Size size = null;
+        List<Rendition> renditions = new ArrayList<>();
+        String source = null;
+        String destination = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--online".equals(arg)) {
+                    online = true;
+                } else if ("--preview".equals(arg)) {
+                    preview = true;
+                } else if ("--metrics".equals(arg)) {
+                    metrics = true;
+                } else if ("--no-passthrough".equals(arg)) {
+                    config.setStreamPassthrough(false);
+                } else if ("--quiet".equals(arg)) {
+                    StabilizationLog.setLogger(StabilizationLog.NONE);
+                } else if ("--radius".equals(arg)) {
+                    config.setStabRadius(Integer.parseInt(value(args, ++i)));
+                } else if ("--trim".equals(arg)) {
+                    config.setStabTrimRatio(Float.parseFloat(value(args, ++i)));
+                } else if ("--rotate".equals(arg)) {
+                    rotate = Integer.parseInt(value(args, ++i));
+                } else if ("--start".equals(arg)) {
+                    start = millis(value(args, ++i));
+                } else if ("--end".equals(arg)) {
+                    end = millis(value(args, ++i));
+                } else if ("--size".equals(arg)) {
+                    int[] sides = size(value(args, ++i));
+                    size = new opencv_core.Size(sides[0], sides[1]);
+                } else if ("--rendition".equals(arg)) {
+                    String rendition = value(args, ++i);
+                    int colon = rendition.indexOf(':');
+                    if (colon < 0) {
+                        throw new IllegalArgumentException("Bad rendition: " + rendition);
+                    }
+                    int[] sides = size(rendition.substring(0, colon));
+                    renditions.add(new Rendition(rendition.substring(colon + 1), sides[0], sides[1]));
+                } else if ("--threads".equals(arg)) {
+                    config.setAnalysisThreads(Integer.parseInt(value(args, ++i)));
+                } else if ("--motion-cache".equals(arg)) {
+                    config.setMotionCacheDir(new File(value(args, ++i)));
+                } else if ("--timeout".equals(arg)) {
+                    timeout = Long.parseLong(value(args, ++i));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else if (source == null) {
+                    source = arg;
+                } else if (destination == null) {
+                    destination = arg;
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+            }
+            if (source == null || destination == null) {
+                throw new IllegalArgumentException("Missing source or destination");
+            }
+            if (end > 0 && end <= start) {
+                throw new IllegalArgumentException("--end must be after --start");
+            }
+            if (online && preview) {
+                throw new IllegalArgumentException("--online and --preview can't be used together");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+
+        VideoStabilization stabilization = new VideoStabilization(source, destination, config);
+        stabilization.setRotateVideo(rotate);
+        if (start > 0 || end > 0) {
+            stabilization.setRange(start, end, TimeUnit.MILLISECONDS);
+        }
+        if (size != null) {
+            stabilization.setSizeImage(size);
+        }
+        stabilization.setRenditions(renditions);
+        if (metrics) {
+            stabilization.setMetrics(new StabilizationMetrics());
+        }
+        if (timeout > 0) {
+            stabilization.setDeadline(timeout, TimeUnit.SECONDS);
+        }
+        ExitListener listener = new ExitListener();
+        stabilization.setOnStabilizedListener(listener);
+
+        if (online) {
+            stabilization.stabilizerOnline();
+        } else if (preview) {
+            stabilization.preview();
+        } else {
+            stabilization.stabilizer();
+        }
+
+        if (metrics) {
+            System.out.print(stabilization.getMetrics().summary());
+        }
+        return listener.exitCode;
+    }
+
+    /**
+     * @return width and height of {@code <w>x<h>}.
+     */
+    private static int[] size(String size) {
+        String[] sides = size.split("x");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Bad size: " + size);
+        }
+        return new int[] {Integer.parseInt(sides[0]), Integer.parseInt(sides[1])};
+    }
+
+    private static long millis(String seconds) {
+        return Math.round(Double.parseDouble(seconds) * 1000);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Turns the end of the job into the exit code.
+     */
+    private static final class ExitListener implements OnStabilizedListener {
+        int exitCode = 0;
+        int frames = 0;
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onProcess(int indexFrame, opencv_core.Mat frame) {
+            frames++;
+        }
+
+        @Override
+        public void onCancelled() {
+            System.err.println("Cancelled after " + frames + " frames");
+            exitCode = 3;
+        }
+
+        @Override
+        public void onFailed(Exception error) {
+            error.printStackTrace();
+            exitCode = 1;
+        }
+
+        @Override
+        public void onFinished() {
+            if (exitCode == 0) {
+                System.out.println("Stabilized " + frames + " frames");
+            }
+        }
+    }
+}
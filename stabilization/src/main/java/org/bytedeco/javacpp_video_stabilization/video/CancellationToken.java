@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cancels stabilization jobs, see {@link VideoStabilization#setCancellationToken(CancellationToken)}.
+ *
+ * <p>
+ *     A token can be shared by several jobs, {@link #cancel()} stops all of them. A cancelled
+ *     job interrupts its threads, so a stage blocked on a queue stops at once, releases its
+ *     frames and its native resources, and the job ends with
+ *     {@link OnStabilizedListener#onCancelled()}. A token can't be reset.
+ * </p>
+ */
+public class CancellationToken {
+
+    /** fires the deadlines of the jobs */
+    private static final Timer DEADLINES = new Timer(">>>stab-deadlines", true);
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private final List<Runnable> mCallbacks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Cancels the jobs of this token, can be called from any thread.
+     */
+    public void cancel() {
+        if (mCancelled.compareAndSet(false, true)) {
+            for (Runnable callback : mCallbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    /**
+     * @throws CancellationException when the token has been cancelled.
+     */
+    void throwIfCancelled() {
+        if (mCancelled.get()) {
+            throw new CancellationException("Stabilization cancelled");
+        }
+    }
+
+    /**
+     * @param callback run by {@link #cancel()}, at once when the token is already cancelled.
+     */
+    void onCancel(Runnable callback) {
+        mCallbacks.add(callback);
+        if (mCancelled.get() && mCallbacks.remove(callback)) {
+            callback.run();
+        }
+    }
+
+    void removeOnCancel(Runnable callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * @param delayMillis time before the token is cancelled.
+     * @return the deadline, cancel it when the job ends first.
+     */
+    TimerTask cancelAfter(long delayMillis) {
+        TimerTask deadline = new TimerTask() {
+            @Override
+            public void run() {
+                CancellationToken.this.cancel();
+            }
+        };
+        DEADLINES.schedule(deadline, Math.max(0, delayMillis));
+        return deadline;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NONE;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
+
+/**
+ * Encodes the stabilized frames with FFmpeg, H.264 by default.
+ *
+ * <p>
+ *     The frames are given to the recorder straight from the data of the {@link opencv_core.Mat},
+ *     there is no conversion to a {@link Frame} first. The codec, its threads, preset, CRF and
+ *     GOP come from {@link VideoStabConfig}.
+ * </p>
+ *
+ * <p>
+ *     The chroma of YUV 4:2:0 needs even sizes, an odd last row or column of the frames is not
+ *     encoded.
+ * </p>
+ */
+public class FFmpegFrameEncoder implements FrameEncoder {
+
+    private final VideoStabConfig mVideoStabConfig;
+    private int mVideoCodec;
+    private FFmpegFrameRecorder mRecorder;
+    private int mWidth;
+    private int mHeight;
+
+    public FFmpegFrameEncoder(VideoStabConfig config) {
+        mVideoStabConfig = config;
+        mVideoCodec = config.getEncoderCodec();
+    }
+
+    /**
+     * @param videoCodec codec of the video instead of {@link VideoStabConfig#getEncoderCodec()},
+     *                   set before {@link #start(String, int, int, double)}.
+     */
+    public void setVideoCodec(int videoCodec) {
+        mVideoCodec = videoCodec;
+    }
+
+    @Override
+    public void start(String path, int width, int height, double frameRate) throws Exception {
+        mWidth = width & ~1;
+        mHeight = height & ~1;
+
+        mRecorder = new FFmpegFrameRecorder(path, mWidth, mHeight, 0);
+        mRecorder.setFormat(mVideoStabConfig.getOutputFormat());
+        mRecorder.setVideoCodec(mVideoCodec);
+        mRecorder.setPixelFormat(AV_PIX_FMT_YUV420P);
+        mRecorder.setFrameRate(frameRate);
+        mRecorder.setGopSize(mVideoStabConfig.getEncoderGop());
+        mRecorder.setVideoOption("threads", String.valueOf(mVideoStabConfig.getEncoderThreads()));
+        if (mVideoStabConfig.getEncoderPreset() != null) {
+            mRecorder.setVideoOption("preset", mVideoStabConfig.getEncoderPreset());
+        }
+        if (mVideoStabConfig.getEncoderCrf() >= 0) {
+            mRecorder.setVideoOption("crf", String.valueOf(mVideoStabConfig.getEncoderCrf()));
+        }
+        mRecorder.start();
+    }
+
+    @Override
+    public void encode(opencv_core.Mat frame) throws Exception {
+        // the row stride keeps the odd last column out of the picture
+        mRecorder.recordImage(mWidth, mHeight, Frame.DEPTH_UBYTE, frame.channels(),
+                (int) frame.step(), AV_PIX_FMT_NONE, frame.createBuffer());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (mRecorder == null) {
+            return;
+        }
+        try {
+            mRecorder.stop();
+        } finally {
+            mRecorder.release();
+            mRecorder = null;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the decoded frames of the source video so a second pass can replay them without
+ * decoding the video again.
+ *
+ * <p>
+ *     Frames are kept in memory until {@link VideoStabConfig#getFrameCacheBytes()} is reached,
+ *     the next frames are spilled as raw pixels to a temporary file in
+ *     {@link VideoStabConfig#getFrameCacheDir()} and read back when replayed.
+ * </p>
+ *
+ * <p>
+ *     The spill file is bounded by {@link VideoStabConfig#getFrameCacheDiskBytes()} and by half
+ *     of the free space of its directory. A video above both budgets overflows the cache: the
+ *     spill file is deleted, the next frames are not kept and the cache never completes, so the
+ *     second pass decodes the video again.
+ * </p>
+ */
+class FrameCache {
+
+    /** frame stored in the cache */
+    private static final class Entry {
+        /** frame data, null when the frame was spilled to disk */
+        Mat frame;
+
+        /** position of the frame in the spill file */
+        long offset;
+
+        int rows;
+        int cols;
+        int type;
+        int bytes;
+    }
+
+    /** max bytes of frames kept in memory */
+    private final long memoryBudget;
+
+    /** max bytes of frames spilled to disk */
+    private final long diskBudget;
+
+    /** directory of the spill file */
+    private final File spillDir;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** frames kept in memory */
+    private final Map<Mat, Boolean> inMemory = new IdentityHashMap<>();
+
+    /** buffers of the frames read back from the spill file */
+    private final MatPool matPool;
+
+    private long memoryBytes;
+
+    private File spillFile;
+    private RandomAccessFile spillAccess;
+    private FileChannel spillChannel;
+    private long spillBytes;
+
+    /** bytes the spill file may grow to, the disk budget bounded by the free space */
+    private long spillLimit;
+
+    /** true when the whole video has been added */
+    private boolean complete;
+
+    /** true when the video did not fit in the budgets, the cache then never completes */
+    private boolean overflowed;
+
+    /**
+     * @param memoryBudget max bytes of frames kept in memory.
+     * @param diskBudget max bytes of frames spilled to disk.
+     * @param spillDir directory of the spill file, null for the temporary directory.
+     * @param matPool buffers of the frames read back from the spill file.
+     */
+    FrameCache(long memoryBudget, long diskBudget, File spillDir, MatPool matPool) {
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+        this.spillDir = spillDir;
+        this.matPool = matPool;
+    }
+
+    /**
+     * Adds the next frame of the video. A frame kept in memory is shared with the caller and
+     * must not be modified afterwards, a spilled frame is copied.
+     *
+     * @param frame frame data.
+     */
+    synchronized void add(Mat frame) throws IOException {
+        if (overflowed) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.rows = frame.rows();
+        entry.cols = frame.cols();
+        entry.type = frame.type();
+        entry.bytes = (int) (frame.total() * frame.elemSize());
+
+        if (memoryBytes + entry.bytes <= memoryBudget) {
+            entry.frame = frame;
+            inMemory.put(frame, Boolean.TRUE);
+            memoryBytes += entry.bytes;
+        } else {
+            if (spillChannel == null) {
+                File dir = spillDir != null ? spillDir : new File(System.getProperty("java.io.tmpdir"));
+                spillLimit = Math.min(diskBudget, dir.getUsableSpace() / 2);
+            }
+            if (spillBytes + entry.bytes > spillLimit) {
+                overflow();
+                return;
+            }
+            entry.offset = spillBytes;
+            write(frame, entry);
+            spillBytes += entry.bytes;
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * @param index index of the frame in the video.
+     * @return the frame, shared with the cache when it is kept in memory, borrowed from the
+     * pool when it is read back from the spill file.
+     */
+    synchronized Mat get(int index) throws IOException {
+        Entry entry = entries.get(index);
+        if (entry.frame != null) {
+            return entry.frame;
+        }
+        return read(entry);
+    }
+
+    /**
+     * @return true when the frame is kept in memory by the cache, it must not be released then.
+     */
+    synchronized boolean contains(Mat frame) {
+        return inMemory.containsKey(frame);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Marks the cache as holding the whole video.
+     */
+    synchronized void complete() {
+        complete = !overflowed;
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Drops every frame and deletes the spill file.
+     */
+    synchronized void clear() {
+        for (Entry entry : entries) {
+            if (entry.frame != null) {
+                matPool.release(entry.frame);
+            }
+        }
+        entries.clear();
+        inMemory.clear();
+        memoryBytes = 0;
+        complete = false;
+        overflowed = false;
+        deleteSpillFile();
+    }
+
+    /**
+     * Stops caching the video, the frames kept in memory stay until {@link #clear()}: the
+     * caller may still be using them.
+     */
+    private void overflow() {
+        StabilizationLog.d(">>>stab", "Frame cache full, the video will be decoded again");
+        overflowed = true;
+        deleteSpillFile();
+    }
+
+    private void deleteSpillFile() {
+        spillBytes = 0;
+        if (spillChannel != null) {
+            try {
+                spillAccess.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            spillFile.delete();
+            spillChannel = null;
+            spillAccess = null;
+            spillFile = null;
+        }
+    }
+
+    private void write(Mat frame, Entry entry) throws IOException {
+        if (spillChannel == null) {
+            spillFile = File.createTempFile("stab_frames", ".raw", spillDir);
+            spillFile.deleteOnExit();
+            spillAccess = new RandomAccessFile(spillFile, "rw");
+            spillChannel = spillAccess.getChannel();
+        }
+
+        Mat continuous = frame.isContinuous() ? frame : frame.clone();
+        ByteBuffer buffer = continuous.data().capacity(entry.bytes).asByteBuffer();
+        long position = entry.offset;
+        while (buffer.hasRemaining()) {
+            position += spillChannel.write(buffer, position);
+        }
+
+        if (continuous != frame) {
+            continuous.release();
+        }
+    }
+
+    private Mat read(Entry entry) throws IOException {
+        Mat frame = matPool.acquire(entry.rows, entry.cols, entry.type);
+        ByteBuffer buffer = frame.data().capacity(entry.bytes).asByteBuffer();
+        long position = entry.offset;
+        while (buffer.hasRemaining()) {
+            int read = spillChannel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Frame cache spill file is truncated");
+            }
+            position += read;
+        }
+        return frame;
+    }
+}
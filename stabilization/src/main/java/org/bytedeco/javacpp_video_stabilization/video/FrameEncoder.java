@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core;
+
+/**
+ * Writes the stabilized frames to the resulting video.
+ *
+ * <p>
+ *     The default encoder is {@link FFmpegFrameEncoder}, another one can be given to
+ *     {@link VideoStabilization#setFrameEncoderFactory(Factory)}. An encoder writes one file,
+ *     its methods are called from a single thread.
+ * </p>
+ */
+public interface FrameEncoder {
+
+    /**
+     * Creates an encoder for each file written by a job.
+     */
+    interface Factory {
+
+        /**
+         * @param config video stab configs.
+         * @return new encoder, not started.
+         */
+        FrameEncoder create(VideoStabConfig config);
+    }
+
+    /**
+     * Called before the first frame.
+     *
+     * @param path path of the resulting video, its extension is
+     *             {@link VideoStabConfig#getOutputFormat()}.
+     * @param width width of the frames.
+     * @param height height of the frames.
+     * @param frameRate frame rate of the source video.
+     */
+    void start(String path, int width, int height, double frameRate) throws Exception;
+
+    /**
+     * @param frame stabilized frame, only borrowed for the call.
+     */
+    void encode(opencv_core.Mat frame) throws Exception;
+
+    /**
+     * Finishes the file and releases the encoder, called even when the job failed.
+     */
+    void stop() throws Exception;
+}
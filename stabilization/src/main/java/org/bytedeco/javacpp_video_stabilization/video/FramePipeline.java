@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs the per-frame work of a stabilization job on two threads joined by a bounded queue.
+ *
+ * <p>
+ *     The source blocks when the queue is full, so a slow encoder holds back the warp and decode
+ *     stages instead of letting frames pile up in native memory. Frames keep their order.
+ * </p>
+ *
+ * <ur>
+ *     <li>{@link Source} - produces the frames on its own thread, e.g. the stabilized frame source</li>
+ *     <li>{@link Sink} - consumes the frames on the calling thread, e.g. the video writer</li>
+ * </ur>
+ */
+class FramePipeline {
+
+    /**
+     * Produces the frames of the pipeline.
+     */
+    interface Source {
+
+        /**
+         * @return next frame, null or an empty {@link Mat} at the end of the stream.
+         */
+        Mat next() throws Exception;
+    }
+
+    /**
+     * Consumes the frames at the end of the pipeline.
+     */
+    interface Sink {
+
+        /**
+         * @param index index of the frame in the stream.
+         * @param frame frame data, owned by the sink.
+         */
+        void accept(int index, Mat frame) throws Exception;
+    }
+
+    /** frame travelling from the source to the sink */
+    private static final class Packet {
+        /** marks the end of the stream */
+        static final Packet END = new Packet(-1, null);
+
+        final int index;
+        final Mat frame;
+
+        Packet(int index, Mat frame) {
+            this.index = index;
+            this.frame = frame;
+        }
+    }
+
+    /** capacity of the queue */
+    private final int depth;
+
+    /** takes back the frames left in the queue */
+    private final MatPool matPool;
+
+    private String sourceName;
+    private Source source;
+
+    private Thread worker;
+    private BlockingQueue<Packet> queue;
+
+    /** size of the queue */
+    private StabilizationMetrics metrics = StabilizationMetrics.DISABLED;
+
+    /** error thrown by the source */
+    private volatile Exception failure;
+
+    /**
+     * @param depth number of frames buffered between the source and the sink, at least 1.
+     * @param matPool pool of the frames of the source.
+     */
+    FramePipeline(int depth, MatPool matPool) {
+        this.depth = Math.max(1, depth);
+        this.matPool = matPool;
+    }
+
+    /**
+     * @param metrics reports the number of frames waiting in the queue.
+     */
+    FramePipeline metrics(StabilizationMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    FramePipeline source(String name, Source source) {
+        this.sourceName = name;
+        this.source = source;
+        return this;
+    }
+
+    /**
+     * Starts a thread for the source, then drains the queue into the sink on the calling thread
+     * until the end of the stream.
+     *
+     * @param sink consumer of the frames.
+     * @return number of frames passed to the sink.
+     * @throws Exception the first error thrown by the source or the sink.
+     */
+    int run(Sink sink) throws Exception {
+        if (source == null)
+            throw new IllegalStateException("FramePipeline needs a source");
+
+        queue = new ArrayBlockingQueue<>(depth);
+        metrics.watchQueue(sourceName, queue);
+        startSource(queue);
+
+        int count = 0;
+        try {
+            while (true) {
+                Packet packet = queue.take();
+                if (packet == Packet.END) {
+                    break;
+                }
+                sink.accept(packet.index, packet.frame);
+                count++;
+            }
+        } finally {
+            shutdown();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return count;
+    }
+
+    private void startSource(final BlockingQueue<Packet> out) {
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int index = 0;
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Mat frame = source.next();
+                        if (frame == null || frame.empty()) {
+                            break;
+                        }
+                        out.put(new Packet(index++, frame));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    fail(e);
+                }
+                endOfStream(out);
+            }
+        }, sourceName);
+        worker.start();
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void endOfStream(BlockingQueue<Packet> out) {
+        try {
+            out.put(Packet.END);
+        } catch (InterruptedException ignored) {
+            // pipeline is shutting down
+        }
+    }
+
+    /**
+     * Stops the source and gives the frames still waiting in the queue back to the pool.
+     */
+    private void shutdown() throws InterruptedException {
+        worker.interrupt();
+        worker.join();
+        metrics.unwatchQueue(queue);
+        Packet packet;
+        while ((packet = queue.poll()) != null) {
+            matPool.release(packet.frame);
+        }
+        worker = null;
+        queue = null;
+    }
+}
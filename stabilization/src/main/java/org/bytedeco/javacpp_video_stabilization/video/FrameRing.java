@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Fixed ring of frame slots in one preallocated native buffer.
+ *
+ * <p>
+ *     The frames are copied into the slots in turn and must leave in the order they came in:
+ *     copying a frame reuses the slot of the frame put {@link #capacity()} frames before. The
+ *     memory is allocated once when the ring is created and does not grow afterwards.
+ * </p>
+ */
+class FrameRing {
+
+    private final int mRows;
+    private final int mCols;
+    private final int mType;
+    private final BytePointer mData;
+    private final Mat[] mSlots;
+    private int mNext;
+
+    /**
+     * @param frameBytes bytes of a frame.
+     * @param maxBytes bytes of the ring, 0 for no limit.
+     * @param wanted slots wanted.
+     * @return slots of a ring holding at most {@code maxBytes}, at least 1.
+     */
+    static int capacity(long frameBytes, long maxBytes, int wanted) {
+        if (maxBytes <= 0) {
+            return Math.max(1, wanted);
+        }
+        return (int) Math.max(1, Math.min(wanted, maxBytes / Math.max(1, frameBytes)));
+    }
+
+    FrameRing(int rows, int cols, int type, int capacity) {
+        mRows = rows;
+        mCols = cols;
+        mType = type;
+        mSlots = new Mat[capacity];
+
+        Mat probe = new Mat(1, 1, type);
+        long frameBytes = (long) rows * cols * probe.elemSize();
+        probe.release();
+
+        mData = new BytePointer(frameBytes * capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = new Mat(rows, cols, type, new BytePointer(mData).position(i * frameBytes));
+        }
+    }
+
+    int capacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return true when the frame has the size and type of the slots.
+     */
+    boolean fits(Mat frame) {
+        return frame.rows() == mRows && frame.cols() == mCols && frame.type() == mType;
+    }
+
+    /**
+     * Copies a frame into the next slot.
+     *
+     * @param frame frame of the size and type of the ring, not modified.
+     * @return the slot holding the copy, valid until {@link #capacity()} more frames are put.
+     */
+    Mat put(Mat frame) {
+        Mat slot = mSlots[mNext];
+        frame.copyTo(slot);
+        mNext = (mNext + 1) % mSlots.length;
+        return slot;
+    }
+
+    /**
+     * Frees the buffer of the ring, the slots must not be used afterwards.
+     */
+    void release() {
+        for (Mat slot : mSlots) {
+            slot.release();
+        }
+        mData.deallocate();
+    }
+}
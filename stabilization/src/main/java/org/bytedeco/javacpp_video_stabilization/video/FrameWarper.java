@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Scalar;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_videostab;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.CV_64F;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_LINEAR;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static org.bytedeco.javacpp.opencv_imgproc.warpAffine;
+import static org.bytedeco.javacpp.opencv_imgproc.warpPerspective;
+
+/**
+ * Second pass of the stabilization: applies the stabilization motion to each frame, trims
+ * the borders by {@link VideoStabConfig#getStabTrimRatio()}, rotates and scales the output.
+ *
+ * <p>
+ *     The trim, the rotation and the scale of the output are part of the warp: the motion is
+ *     followed by a translation of the trimmed borders, by the rotation and by the scale to the
+ *     output size, and the warp only computes the pixels of the output frame, written to a
+ *     buffer of the {@link MatPool}. Each output pixel is written once. A warper can be shared
+ *     by several threads.
+ * </p>
+ *
+ * <p>
+ *     The trim, rotation and scale do not depend on the frame, their transform is computed once
+ *     for the size of the frames of the video, each frame only adds its motion to it.
+ * </p>
+ *
+ * <p>
+ *     The bilinear warp reads 2x2 source pixels per output pixel, below {@link #MIN_WARP_SCALE}
+ *     it skips source pixels and aliases. The frames are then shrunk to the output scale with
+ *     {@link org.bytedeco.javacpp.opencv_imgproc#INTER_AREA} first, and the warp runs on the
+ *     shrunk frame.
+ * </p>
+ */
+class FrameWarper {
+
+    /** smallest scale of the output warped from the full frame */
+    private static final double MIN_WARP_SCALE = 0.5;
+
+    /** motion matrix given to the warp, one per thread */
+    private static final class Motion {
+        final Mat mat;
+        final DoubleIndexer indexer;
+        /** stabilization motion of the frame, the array of the caller is not modified */
+        final double[] stabilization = new double[MotionMath.SIZE];
+        final double[] product = new double[MotionMath.SIZE];
+        final double[] shrunk = new double[MotionMath.SIZE];
+
+        Motion(int rows) {
+            mat = new Mat(rows, 3, CV_64F);
+            indexer = mat.createIndexer();
+        }
+    }
+
+    /** output size and transform from the stabilized frame to the output, for one frame size */
+    private static final class Output {
+        final int width;
+        final int height;
+        final Size size;
+
+        /** trim, then rotation, then scale */
+        final double[] transform = new double[MotionMath.SIZE];
+
+        /** size of the frames shrunk before the warp, null to warp the frames themselves */
+        final Size shrinkSize;
+
+        /** from the shrunk frame to the frame */
+        final double[] unshrink = new double[MotionMath.SIZE];
+
+        /**
+         * @param target size the output fits in, after the rotation, null for the size of the
+         *               trimmed frames.
+         */
+        Output(int width, int height, float trimRatio, int rotation, Size target) {
+            this.width = width;
+            this.height = height;
+
+            final int dx = (int) Math.floor(trimRatio * width);
+            final int dy = (int) Math.floor(trimRatio * height);
+            final int w = width - 2 * dx;
+            final int h = height - 2 * dy;
+
+            // rotation clockwise of the trimmed frame
+            double[] rotate = new double[MotionMath.SIZE];
+            switch (rotation) {
+                case 90:
+                    // (x, y) -> (h - 1 - y, x)
+                    affine(rotate, 0, -1, h - 1, 1, 0, 0);
+                    break;
+                case 180:
+                    // (x, y) -> (w - 1 - x, h - 1 - y)
+                    affine(rotate, -1, 0, w - 1, 0, -1, h - 1);
+                    break;
+                case 270:
+                    // (x, y) -> (y, w - 1 - x)
+                    affine(rotate, 0, 1, 0, -1, 0, w - 1);
+                    break;
+                default:
+                    MotionMath.identity(rotate, 0);
+                    break;
+            }
+            boolean swap = rotation == 90 || rotation == 270;
+            int rotatedWidth = swap ? h : w;
+            int rotatedHeight = swap ? w : h;
+
+            size = fit(rotatedWidth, rotatedHeight, target);
+            int outWidth = size.width();
+            int outHeight = size.height();
+
+            // scale of the pixel centers: x' = (x + 0.5) * s - 0.5
+            double sx = (double) outWidth / rotatedWidth;
+            double sy = (double) outHeight / rotatedHeight;
+            double[] scale = new double[MotionMath.SIZE];
+            affine(scale, sx, 0, 0.5 * sx - 0.5, 0, sy, 0.5 * sy - 0.5);
+
+            double[] trim = new double[MotionMath.SIZE];
+            double[] rotated = new double[MotionMath.SIZE];
+            affine(trim, 1, 0, -dx, 0, 1, -dy);
+            MotionMath.multiply(rotate, 0, trim, 0, rotated, 0);
+            MotionMath.multiply(scale, 0, rotated, 0, transform, 0);
+
+            double minScale = Math.min(sx, sy);
+            if (minScale < MIN_WARP_SCALE) {
+                int shrinkWidth = Math.max(1, (int) Math.round(width * minScale));
+                int shrinkHeight = Math.max(1, (int) Math.round(height * minScale));
+                shrinkSize = new Size(shrinkWidth, shrinkHeight);
+
+                // inverse of the scale of the pixel centers
+                double ux = (double) width / shrinkWidth;
+                double uy = (double) height / shrinkHeight;
+                affine(unshrink, ux, 0, 0.5 * ux - 0.5, 0, uy, 0.5 * uy - 0.5);
+            } else {
+                shrinkSize = null;
+                MotionMath.identity(unshrink, 0);
+            }
+        }
+
+        private static void affine(double[] m, double m00, double m01, double m02,
+                                   double m10, double m11, double m12) {
+            MotionMath.identity(m, 0);
+            m[0] = m00;
+            m[1] = m01;
+            m[2] = m02;
+            m[3] = m10;
+            m[4] = m11;
+            m[5] = m12;
+        }
+    }
+
+    private final VideoStabConfig mVideoStabConfig;
+
+    /** stabilization motion of each frame, see {@link MotionSmoother} */
+    private final double[] mStabilization;
+
+    /** false for the affine motion models */
+    private final boolean mPerspective;
+
+    /** clockwise rotation of the output, 0, 90, 180 or 270 degrees */
+    private final int mRotation;
+
+    /** size the output fits in, null for the size of the trimmed frames */
+    private final Size mTargetSize;
+
+    private final MatPool mMatPool;
+
+    /** motions of all the threads, freed by {@link #release()} */
+    private final List<Motion> mMotions = new ArrayList<>();
+
+    private final ThreadLocal<Motion> mMotion = new ThreadLocal<Motion>() {
+        @Override
+        protected Motion initialValue() {
+            Motion motion = new Motion(mPerspective ? 3 : 2);
+            synchronized (mMotions) {
+                mMotions.add(motion);
+            }
+            return motion;
+        }
+    };
+
+    private final Scalar mBorderValue = new Scalar();
+
+    private volatile Output mOutput;
+
+    /**
+     * @param config video stab configs.
+     * @param stabilization stabilization motion of each frame, null when the motions are
+     *                      given to {@link #warp(Mat, double[], int)}.
+     * @param rotation clockwise rotation of the output in degrees, a multiple of 90, the other
+     *                 angles are ignored.
+     * @param pool buffers of the stabilized frames.
+     */
+    FrameWarper(VideoStabConfig config, double[] stabilization, int rotation, MatPool pool) {
+        this(config, stabilization, rotation, null, pool);
+    }
+
+    /**
+     * @param config video stab configs.
+     * @param stabilization stabilization motion of each frame, null when the motions are
+     *                      given to {@link #warp(Mat, double[], int)}.
+     * @param rotation clockwise rotation of the output in degrees, a multiple of 90, the other
+     *                 angles are ignored.
+     * @param targetSize size the output fits in, after the rotation, the trimmed frames are
+     *                   scaled down to it in the same warp. Null to keep their size.
+     * @param pool buffers of the stabilized frames.
+     */
+    FrameWarper(VideoStabConfig config, double[] stabilization, int rotation, Size targetSize,
+                MatPool pool) {
+        mVideoStabConfig = config;
+        mStabilization = stabilization;
+        mPerspective = config.getMotionMode() == opencv_videostab.MM_HOMOGRAPHY;
+        mRotation = rotation % 90 == 0 ? (rotation % 360 + 360) % 360 : 0;
+        mTargetSize = targetSize;
+        mMatPool = pool;
+    }
+
+    /**
+     * @param index index of the frame in the video.
+     * @param frame frame data, not modified.
+     * @return stabilized, trimmed, rotated and scaled frame, borrowed from the pool.
+     */
+    Mat warp(int index, Mat frame) {
+        return warp(frame, mStabilization, index * MotionMath.SIZE);
+    }
+
+    /**
+     * @param frame frame data, not modified.
+     * @param stabilization array of stabilization motions, not modified.
+     * @param offset offset of the motion of this frame in the array.
+     * @return stabilized, trimmed, rotated and scaled frame, borrowed from the pool.
+     */
+    Mat warp(Mat frame, double[] stabilization, int offset) {
+        final int width = frame.cols();
+        final int height = frame.rows();
+        Motion motion = mMotion.get();
+        System.arraycopy(stabilization, offset, motion.stabilization, 0, MotionMath.SIZE);
+        if (mVideoStabConfig.isInclusion()) {
+            MotionMath.ensureInclusion(motion.stabilization, 0, width, height,
+                    mVideoStabConfig.getStabTrimRatio());
+        }
+
+        // stabilize, then trim, rotate and scale
+        Output output = output(width, height);
+        MotionMath.multiply(output.transform, 0, motion.stabilization, 0, motion.product, 0);
+        Mat source = frame;
+        double[] product = motion.product;
+        if (output.shrinkSize != null) {
+            source = mMatPool.acquire(output.shrinkSize.height(), output.shrinkSize.width(), frame.type());
+            resize(frame, source, output.shrinkSize, 0, 0, INTER_AREA);
+            MotionMath.multiply(motion.product, 0, output.unshrink, 0, motion.shrunk, 0);
+            product = motion.shrunk;
+        }
+        for (int r = 0; r < motion.mat.rows(); r++) {
+            for (int c = 0; c < 3; c++) {
+                motion.indexer.put(r, c, product[r * 3 + c]);
+            }
+        }
+
+        Mat warped = mMatPool.acquire(output.size.height(), output.size.width(), frame.type());
+        int border = mVideoStabConfig.getBorderTypes().value();
+        if (mPerspective) {
+            warpPerspective(source, warped, motion.mat, output.size, INTER_LINEAR, border, mBorderValue);
+        } else {
+            warpAffine(source, warped, motion.mat, output.size, INTER_LINEAR, border, mBorderValue);
+        }
+        if (source != frame) {
+            mMatPool.release(source);
+        }
+        return warped;
+    }
+
+    /**
+     * Frees the motion matrices of the threads, to call once no thread warps a frame anymore.
+     * The warper can't be used afterwards.
+     */
+    void release() {
+        synchronized (mMotions) {
+            for (Motion motion : mMotions) {
+                motion.indexer.release();
+                motion.mat.release();
+            }
+            mMotions.clear();
+        }
+        mBorderValue.deallocate();
+    }
+
+    /**
+     * @param width width of the frames.
+     * @param height height of the frames.
+     * @param target size the frames fit in, null to keep their size.
+     * @return size of the frames scaled to fit in the target, with their aspect ratio, never
+     * scaled up, even sizes for the YUV 4:2:0 encoders.
+     */
+    static Size fit(int width, int height, Size target) {
+        if (target != null && target.width() > 0 && target.height() > 0) {
+            double scale = Math.min((double) target.width() / width, (double) target.height() / height);
+            if (scale < 1) {
+                return new Size(Math.max(2, (int) Math.round(width * scale) & ~1),
+                        Math.max(2, (int) Math.round(height * scale) & ~1));
+            }
+        }
+        return new Size(width, height);
+    }
+
+    /**
+     * @return the output of the frames of this size, all frames of a video have the same size.
+     */
+    private Output output(int width, int height) {
+        Output output = mOutput;
+        if (output == null || output.width != width || output.height != height) {
+            output = new Output(width, height, mVideoStabConfig.getStabTrimRatio(), mRotation,
+                    mTargetSize);
+            mOutput = output;
+        }
+        return output;
+    }
+}
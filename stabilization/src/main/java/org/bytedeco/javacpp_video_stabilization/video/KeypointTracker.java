@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.BoolPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.bytedeco.javacpp.opencv_videostab.MotionEstimatorRansacL2;
+
+import static org.bytedeco.javacpp.opencv_core.CV_32FC2;
+import static org.bytedeco.javacpp.opencv_imgproc.goodFeaturesToTrack;
+import static org.bytedeco.javacpp.opencv_video.calcOpticalFlowPyrLK;
+
+/**
+ * Estimates the motions of consecutive proxies by tracking the same keypoints from frame to
+ * frame, instead of detecting new keypoints on every frame.
+ *
+ * <p>
+ *     The keypoints are detected with GFTT in each cell of a grid of
+ *     {@link VideoStabConfig#getKeypointGrid()} cells per side, each cell gets its share of
+ *     {@link VideoStabConfig#getKeypointBudget()}. The quality of a corner is relative to the best
+ *     corner of its cell, so a textured part of the frame does not leave the flat parts without
+ *     keypoints. They are then followed to the next proxy with the
+ *     pyramidal Lucas-Kanade optical flow, and the ones that agree with the estimated motion are
+ *     carried over to the next pair. The detection only runs again when fewer than
+ *     {@link VideoStabConfig#getMinTrackedRatio()} of the budget is still tracked, or when the
+ *     tracked keypoints left half of the cells they were detected in.
+ * </p>
+ *
+ * <p>
+ *     The pairs must be given in order, the proxy of a pair being the first proxy of the next one.
+ *     A tracker is not thread safe.
+ * </p>
+ */
+class KeypointTracker {
+
+    /** keypoints needed to estimate a motion */
+    private static final int MIN_POINTS = 8;
+
+    /** GFTT quality level and min distance between two keypoints, in pixels of the proxy */
+    private static final double QUALITY_LEVEL = 0.01;
+    private static final double MIN_DISTANCE = 3;
+
+    private final int mBudget;
+    private final int mGrid;
+    private final int mMinTracked;
+
+    /** distance to the estimated motion above which a keypoint is not carried over */
+    private final double mMaxError;
+
+    private final MotionEstimatorRansacL2 mEstimator;
+    private final BoolPointer mOk = new BoolPointer(1);
+
+    /** keypoints of the previous proxy, null to detect them */
+    private Mat mPoints;
+
+    /** cells holding a keypoint right after the last detection */
+    private int mDetectedCells;
+
+    private final Mat mNext = new Mat();
+    private final Mat mStatus = new Mat();
+    private final Mat mError = new Mat();
+
+    KeypointTracker(VideoStabConfig config) {
+        mBudget = Math.max(MIN_POINTS, config.getKeypointBudget());
+        mGrid = Math.max(1, config.getKeypointGrid());
+        mMinTracked = Math.max(MIN_POINTS, Math.round(mBudget * config.getMinTrackedRatio()));
+        mMaxError = config.getRansacThresh();
+        mEstimator = MotionAnalyzer.createRansac(config);
+    }
+
+    /**
+     * Estimates the motion between two consecutive proxies.
+     *
+     * @param prevProxy proxy of the first frame, the second proxy of the previous pair.
+     * @param proxy proxy of the second frame.
+     * @param res motion from the first to the second proxy, 3x3 matrix row by row, the identity
+     *            when it could not be estimated.
+     */
+    void estimate(Mat prevProxy, Mat proxy, double[] res) {
+        if (mPoints == null) {
+            mPoints = detect(prevProxy);
+        }
+        int count = mPoints.rows();
+        if (count < MIN_POINTS) {
+            fail(res);
+            return;
+        }
+
+        calcOpticalFlowPyrLK(prevProxy, proxy, mPoints, mNext, mStatus, mError);
+
+        // pairs of keypoints found in both proxies
+        Mat points0 = new Mat(count, 1, CV_32FC2);
+        Mat points1 = new Mat(count, 1, CV_32FC2);
+        FloatIndexer prev = mPoints.createIndexer();
+        FloatIndexer next = mNext.createIndexer();
+        FloatIndexer first = points0.createIndexer();
+        FloatIndexer second = points1.createIndexer();
+        UByteIndexer status = mStatus.createIndexer();
+        int tracked = 0;
+        for (int i = 0; i < count; i++) {
+            if (status.get(i) != 0) {
+                first.put(tracked, 0, 0, prev.get(i, 0, 0));
+                first.put(tracked, 0, 1, prev.get(i, 0, 1));
+                second.put(tracked, 0, 0, next.get(i, 0, 0));
+                second.put(tracked, 0, 1, next.get(i, 0, 1));
+                tracked++;
+            }
+        }
+        prev.release();
+        next.release();
+        status.release();
+
+        try {
+            if (tracked < MIN_POINTS) {
+                fail(res);
+                return;
+            }
+            Mat motion = mEstimator.estimate(points0.rowRange(0, tracked), points1.rowRange(0, tracked), mOk);
+            if (!mOk.get() || motion.empty()) {
+                motion.release();
+                fail(res);
+                return;
+            }
+            MotionAnalyzer.copy(motion, res);
+            motion.release();
+
+            carryOver(first, second, tracked, res, proxy.cols(), proxy.rows());
+        } finally {
+            first.release();
+            second.release();
+            points0.release();
+            points1.release();
+        }
+    }
+
+    /**
+     * Forgets the tracked keypoints, the next pair detects them again. To call when the next
+     * pair does not follow the previous one.
+     */
+    void reset() {
+        if (mPoints != null) {
+            mPoints.release();
+            mPoints = null;
+        }
+    }
+
+    /**
+     * Releases the keypoints, the buffers and the estimator, the tracker can't be used
+     * afterwards.
+     */
+    void release() {
+        reset();
+        mNext.release();
+        mStatus.release();
+        mError.release();
+        mEstimator.deallocate();
+        mOk.deallocate();
+    }
+
+    private void fail(double[] res) {
+        MotionMath.identity(res, 0);
+        reset();
+    }
+
+    /**
+     * Keeps the keypoints of the second proxy that agree with the motion, they are the keypoints
+     * of the first proxy of the next pair.
+     */
+    private void carryOver(FloatIndexer first, FloatIndexer second, int tracked, double[] m,
+                           int width, int height) {
+        Mat kept = new Mat(tracked, 1, CV_32FC2);
+        FloatIndexer indexer = kept.createIndexer();
+        boolean[] cells = new boolean[mGrid * mGrid];
+        int count = 0;
+        int occupied = 0;
+        double maxError2 = mMaxError * mMaxError;
+        for (int i = 0; i < tracked; i++) {
+            double x0 = first.get(i, 0, 0);
+            double y0 = first.get(i, 0, 1);
+            double x1 = second.get(i, 0, 0);
+            double y1 = second.get(i, 0, 1);
+            if (x1 < 0 || y1 < 0 || x1 >= width || y1 >= height) {
+                continue;
+            }
+            double w = m[6] * x0 + m[7] * y0 + m[8];
+            double dx = (m[0] * x0 + m[1] * y0 + m[2]) / w - x1;
+            double dy = (m[3] * x0 + m[4] * y0 + m[5]) / w - y1;
+            if (dx * dx + dy * dy > maxError2) {
+                continue;
+            }
+            indexer.put(count, 0, 0, (float) x1);
+            indexer.put(count, 0, 1, (float) y1);
+            count++;
+
+            int cell = cell(x1, y1, width, height);
+            if (!cells[cell]) {
+                cells[cell] = true;
+                occupied++;
+            }
+        }
+        indexer.release();
+
+        reset();
+        if (count < mMinTracked || 2 * occupied < mDetectedCells) {
+            kept.release();
+        } else {
+            mPoints = kept.rowRange(0, count).clone();
+            kept.release();
+        }
+    }
+
+    /**
+     * Detects the keypoints of a proxy, spread on the cells of the grid.
+     *
+     * @return keypoints, Nx1 matrix of CV_32FC2.
+     */
+    private Mat detect(Mat image) {
+        int width = image.cols();
+        int height = image.rows();
+        int perCell = Math.max(1, mBudget / (mGrid * mGrid));
+        Mat points = new Mat(mGrid * mGrid * perCell, 1, CV_32FC2);
+        FloatIndexer dst = points.createIndexer();
+
+        int count = 0;
+        mDetectedCells = 0;
+        Mat corners = new Mat();
+        for (int row = 0; row < mGrid; row++) {
+            int top = row * height / mGrid;
+            int bottom = (row + 1) * height / mGrid;
+            for (int column = 0; column < mGrid; column++) {
+                int left = column * width / mGrid;
+                int right = (column + 1) * width / mGrid;
+                if (right <= left || bottom <= top) {
+                    continue;
+                }
+
+                Rect rect = new Rect(left, top, right - left, bottom - top);
+                Mat cell = new Mat(image, rect);
+                goodFeaturesToTrack(cell, corners, perCell, QUALITY_LEVEL, MIN_DISTANCE);
+                cell.release();
+                rect.deallocate();
+
+                int found = corners.empty() ? 0 : corners.rows() * corners.cols();
+                if (found == 0) {
+                    continue;
+                }
+                mDetectedCells++;
+                FloatIndexer src = corners.reshape(2, found).createIndexer();
+                for (int i = 0; i < found; i++) {
+                    dst.put(count, 0, 0, src.get(i, 0, 0) + left);
+                    dst.put(count, 0, 1, src.get(i, 0, 1) + top);
+                    count++;
+                }
+                src.release();
+            }
+        }
+        dst.release();
+        corners.release();
+
+        Mat detected = points.rowRange(0, count).clone();
+        points.release();
+        return detected;
+    }
+
+    private int cell(double x, double y, int width, int height) {
+        int column = Math.min(mGrid - 1, Math.max(0, (int) (x * mGrid / width)));
+        int row = Math.min(mGrid - 1, Math.max(0, (int) (y * mGrid / height)));
+        return row * mGrid + column;
+    }
+}
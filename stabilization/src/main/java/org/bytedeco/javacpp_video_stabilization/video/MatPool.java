@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of frame buffers shared by the stages of a stabilization job.
+ *
+ * <p>
+ *     A stage borrows a {@link Mat} of the size and type it needs with
+ *     {@link #acquire(int, int, int)}, the stage consuming the frame gives it back with
+ *     {@link #release(Mat)}. Once the pipeline is full, every frame reuses a buffer of a previous
+ *     frame and no native memory is allocated per frame. The pool is thread safe.
+ * </p>
+ */
+class MatPool {
+
+    /** max free buffers kept for each size and type */
+    private final int mMaxFree;
+
+    private final Map<Long, ArrayDeque<Mat>> mFree = new HashMap<>();
+
+    /** bytes of the buffers created by the pool and not freed by it */
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+    /**
+     * @param maxFree max free buffers kept for each size and type, the buffers released above
+     *                this count are freed.
+     */
+    MatPool(int maxFree) {
+        mMaxFree = maxFree;
+    }
+
+    /**
+     * @return a buffer of this size and type, its content is undefined.
+     */
+    Mat acquire(int rows, int cols, int type) {
+        synchronized (mFree) {
+            ArrayDeque<Mat> free = mFree.get(key(rows, cols, type));
+            if (free != null && !free.isEmpty()) {
+                return free.pollFirst();
+            }
+        }
+        Mat mat = new Mat(rows, cols, type);
+        mAllocatedBytes.addAndGet(bytes(mat));
+        return mat;
+    }
+
+    /**
+     * Gives a buffer back to the pool, it must not be used afterwards. Views on the data of
+     * another Mat are only released.
+     */
+    void release(Mat mat) {
+        if (mat == null || mat.empty()) {
+            return;
+        }
+        if (mat.isSubmatrix() || !mat.isContinuous()) {
+            mat.release();
+            return;
+        }
+
+        synchronized (mFree) {
+            long key = key(mat.rows(), mat.cols(), mat.type());
+            ArrayDeque<Mat> free = mFree.get(key);
+            if (free == null) {
+                free = new ArrayDeque<>();
+                mFree.put(key, free);
+            }
+            if (free.size() < mMaxFree) {
+                free.addFirst(mat);
+                return;
+            }
+        }
+        free(mat);
+    }
+
+    /**
+     * Frees every buffer of the pool.
+     */
+    void clear() {
+        synchronized (mFree) {
+            for (ArrayDeque<Mat> free : mFree.values()) {
+                for (Mat mat : free) {
+                    free(mat);
+                }
+            }
+            mFree.clear();
+        }
+    }
+
+    /**
+     * @return bytes of the buffers created by the pool and not freed by it yet, the buffers
+     * in use included.
+     */
+    long allocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    private void free(Mat mat) {
+        mAllocatedBytes.addAndGet(-bytes(mat));
+        mat.release();
+    }
+
+    private static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) cols << 16) | type;
+    }
+}
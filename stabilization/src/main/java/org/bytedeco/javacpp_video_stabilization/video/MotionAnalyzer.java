@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.BoolPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_features2d.GFTTDetector;
+import org.bytedeco.javacpp.opencv_videostab.IOutlierRejector;
+import org.bytedeco.javacpp.opencv_videostab.KeypointBasedMotionEstimator;
+import org.bytedeco.javacpp.opencv_videostab.MotionEstimatorRansacL2;
+import org.bytedeco.javacpp.opencv_videostab.NullOutlierRejector;
+import org.bytedeco.javacpp.opencv_videostab.RansacParams;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_core.NORM_L1;
+import static org.bytedeco.javacpp.opencv_core.norm;
+import static org.bytedeco.javacpp.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.COLOR_BGRA2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.cvtColor;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * First pass of the stabilization: estimates the motion between each pair of consecutive frames.
+ * An analyzer is not thread safe, every thread estimating motions uses its own analyzer.
+ *
+ * <p>
+ *     The motion is not estimated on the frames themselves but on a proxy: a grayscale copy
+ *     scaled by {@link VideoStabConfig#getProxyScale()}. The motions found on the proxy are
+ *     rescaled to the coordinates of the full resolution frames, see
+ *     {@link MotionMath#rescale(double[], int, double, double)}.
+ * </p>
+ */
+class MotionAnalyzer {
+
+    private final VideoStabConfig mVideoStabConfig;
+
+    /** motion estimator, RANSAC L2 on GFTT keypoints detected on every frame, null when they are tracked */
+    private final KeypointBasedMotionEstimator mEstimator;
+
+    /** tracks the keypoints from frame to frame, null when the tracking is disabled */
+    private final KeypointTracker mTracker;
+    private final BoolPointer mOk = new BoolPointer(1);
+
+    private Mat mPrevProxy;
+
+    /** buffers of the proxies */
+    private final MatPool mMatPool;
+
+    /** counts the static pairs */
+    private final StabilizationMetrics mMetrics;
+
+    /** empty mask of the difference between two proxies */
+    private final Mat mNoMask = new Mat();
+
+    MotionAnalyzer(VideoStabConfig config, MatPool pool, StabilizationMetrics metrics) {
+        mVideoStabConfig = config;
+        mTracker = config.isKeypointTracking() ? new KeypointTracker(config) : null;
+        mEstimator = mTracker == null ? createEstimator(config) : null;
+        mMatPool = pool;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Create the motion estimator from the config.
+     *
+     * @param config video stab configs.
+     * @return motion estimator.
+     */
+    static KeypointBasedMotionEstimator createEstimator(VideoStabConfig config) {
+        // first prepare the motion the estimation builder RANSAC L2;
+        MotionEstimatorRansacL2 est = createRansac(config);
+
+        // seconds, create a feature detector
+        GFTTDetector feature = GFTTDetector.create(config.getKeypointBudget(), 0.01, 1, 3, false, 0.04);
+
+        // third, create the motion estimator
+        KeypointBasedMotionEstimator motionEstBuilder = new KeypointBasedMotionEstimator(est);
+        motionEstBuilder.setDetector(feature);
+
+        // define error
+        IOutlierRejector outlierRejector = new IOutlierRejector(new NullOutlierRejector());
+        motionEstBuilder.setOutlierRejector(outlierRejector);
+        return motionEstBuilder;
+    }
+
+    /**
+     * Create the RANSAC L2 estimator of the motion between two sets of keypoints.
+     *
+     * @param config video stab configs.
+     * @return motion estimator.
+     */
+    static MotionEstimatorRansacL2 createRansac(VideoStabConfig config) {
+        MotionEstimatorRansacL2 est = new MotionEstimatorRansacL2(config.getMotionMode());
+
+        // set ransac params for motion estimator
+        RansacParams ransacParams = est.ransacParams();
+        config.setRansacParams(ransacParams);
+
+        est.setRansacParams(ransacParams);
+        est.setMinInlierRatio(config.getMinInLierRatio());
+        return est;
+    }
+
+    /**
+     * Estimates the motion from the previous frame given to this method to this frame.
+     *
+     * @param frame next frame of the video, not modified.
+     * @param res motion to this frame, 3x3 matrix row by row.
+     * @return false for the first frame, there is no motion then.
+     */
+    boolean next(Mat frame, double[] res) {
+        Mat proxy = proxy(frame, mVideoStabConfig.getProxyScale(), mMatPool);
+        boolean hasMotion = mPrevProxy != null;
+        if (hasMotion) {
+            estimate(mPrevProxy, proxy,
+                    (double) proxy.cols() / frame.cols(),
+                    (double) proxy.rows() / frame.rows(), res);
+            mMatPool.release(mPrevProxy);
+        }
+        mPrevProxy = proxy;
+        return hasMotion;
+    }
+
+    /**
+     * Estimates the motion between two proxies and rescales it to the full resolution frames.
+     * When the keypoints are tracked, the pairs must follow each other, see {@link #reset()}.
+     * The motion of two nearly identical proxies, see {@link VideoStabConfig#getStaticDifference()},
+     * is the identity without estimating it.
+     *
+     * @param prevProxy proxy of the first frame.
+     * @param proxy proxy of the second frame.
+     * @param scaleX width of the proxies divided by the width of the frames.
+     * @param scaleY height of the proxies divided by the height of the frames.
+     * @param res motion from the first to the second frame, 3x3 matrix row by row.
+     */
+    void estimate(Mat prevProxy, Mat proxy, double scaleX, double scaleY, double[] res) {
+        if (isStatic(prevProxy, proxy)) {
+            // the tracked keypoints stay valid for the next pair
+            MotionMath.identity(res, 0);
+            mMetrics.pairSkipped();
+            return;
+        }
+        if (mTracker != null) {
+            mTracker.estimate(prevProxy, proxy, res);
+        } else {
+            Mat motion = mEstimator.estimate(prevProxy, proxy, mOk);
+            read(motion, res);
+            motion.release();
+        }
+
+        MotionMath.rescale(res, 0, scaleX, scaleY);
+    }
+
+    /**
+     * @return true when the mean absolute difference of the proxies is below the static
+     * threshold, e.g. duplicated frames or a tripod shot.
+     */
+    private boolean isStatic(Mat prevProxy, Mat proxy) {
+        float threshold = mVideoStabConfig.getStaticDifference();
+        if (threshold < 0 || prevProxy.rows() != proxy.rows() || prevProxy.cols() != proxy.cols()) {
+            return false;
+        }
+        double difference = norm(prevProxy, proxy, NORM_L1, mNoMask) / (proxy.total() * proxy.channels());
+        return difference <= threshold;
+    }
+
+    /**
+     * Forgets the keypoints tracked so far, to call before estimating a pair that does not
+     * follow the previous one.
+     */
+    void reset() {
+        if (mTracker != null) {
+            mTracker.reset();
+        }
+    }
+
+    /**
+     * Releases the last proxy, the tracked keypoints and the estimator, the analyzer can't be
+     * used afterwards.
+     */
+    void release() {
+        if (mPrevProxy != null) {
+            mMatPool.release(mPrevProxy);
+            mPrevProxy = null;
+        }
+        if (mTracker != null) {
+            mTracker.release();
+        }
+        if (mEstimator != null) {
+            mEstimator.deallocate();
+        }
+        mOk.deallocate();
+        mNoMask.deallocate();
+    }
+
+    /**
+     * Create the grayscale, down scaled copy of the frame the motion is estimated on.
+     * The frame is scaled first so the color conversion only runs on the proxy pixels.
+     *
+     * @param frame frame data, not modified.
+     * @param scale scale of the proxy, see {@link VideoStabConfig#getProxyScale()}.
+     * @param pool buffers of the proxies.
+     * @return new proxy, borrowed from the pool.
+     */
+    static Mat proxy(Mat frame, float scale, MatPool pool) {
+        int width = frame.cols();
+        int height = frame.rows();
+        Mat scaled = frame;
+        if (scale < 1f) {
+            width = Math.max(1, Math.round(frame.cols() * scale));
+            height = Math.max(1, Math.round(frame.rows() * scale));
+
+            scaled = pool.acquire(height, width, frame.type());
+            resize(frame, scaled, scaled.size(), 0, 0, INTER_AREA);
+        }
+
+        // a gray source is already luma only
+        if (scaled.channels() == 1) {
+            if (scaled != frame) {
+                return scaled;
+            }
+            Mat copy = pool.acquire(height, width, frame.type());
+            frame.copyTo(copy);
+            return copy;
+        }
+
+        Mat gray = pool.acquire(height, width, CV_8UC1);
+        cvtColor(scaled, gray, scaled.channels() == 4 ? COLOR_BGRA2GRAY : COLOR_BGR2GRAY);
+        if (scaled != frame) {
+            pool.release(scaled);
+        }
+        return gray;
+    }
+
+    /**
+     * Copy the 3x3 motion returned by the estimator, a failed estimation gives the identity.
+     */
+    private void read(Mat motion, double[] res) {
+        if (!mOk.get() || motion.empty()) {
+            MotionMath.identity(res, 0);
+            return;
+        }
+        copy(motion, res);
+    }
+
+    /**
+     * Copy a 3x3 CV_32F motion returned by an estimator.
+     *
+     * @param motion matrix of the motion.
+     * @param res motion, row by row.
+     */
+    static void copy(Mat motion, double[] res) {
+        FloatIndexer indexer = motion.createIndexer();
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                res[r * 3 + c] = indexer.get(r, c);
+            }
+        }
+        indexer.release();
+    }
+}
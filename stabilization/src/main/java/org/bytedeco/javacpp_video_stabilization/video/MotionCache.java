@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps the motions estimated for a video in a cache directory, so a later job on the same
+ * video with the same estimation settings skips the motion estimation.
+ *
+ * <p>
+ *     The key of an entry is a hash of the content of the video and of every setting used by
+ *     {@link MotionAnalyzer}. The stabilization radius and the trim ratio are applied after the
+ *     estimation and are not part of the key. To keep the key cheap for long videos, only the
+ *     length, the first and the last {@link #SAMPLE_BYTES} bytes of the video are hashed.
+ * </p>
+ *
+ * <p>
+ *     An entry is a small binary file: a header followed by the 3x3 motion matrices as floats.
+ * </p>
+ */
+class MotionCache {
+
+    /** bytes hashed at the start and at the end of the video */
+    static final int SAMPLE_BYTES = 1024 * 1024;
+
+    private static final int MAGIC = 0x53544142; // "STAB"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".motions";
+
+    private final File mDirectory;
+
+    MotionCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @param sourceVideo path of the video.
+     * @param config settings of the motion estimation.
+     * @return key of the motions of this video.
+     */
+    static String key(String sourceVideo, VideoStabConfig config) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(sourceVideo, "r");
+        try {
+            long length = file.length();
+            byte[] buffer = new byte[(int) Math.min(SAMPLE_BYTES, length)];
+            file.readFully(buffer);
+            digest.update(buffer);
+            if (length > SAMPLE_BYTES) {
+                file.seek(Math.max(SAMPLE_BYTES, length - SAMPLE_BYTES));
+                int tail = (int) (length - file.getFilePointer());
+                file.readFully(buffer, 0, tail);
+                digest.update(buffer, 0, tail);
+            }
+
+            String settings = length
+                    + "|" + config.getMotionMode()
+                    + "|" + config.getRansacSize()
+                    + "|" + config.getRansacThresh()
+                    + "|" + config.getRansacEPS()
+                    + "|" + config.getMinInLierRatio()
+                    + "|" + config.getProxyScale()
+                    + "|" + config.getKeypointBudget()
+                    + "|" + config.isKeypointTracking()
+                    + "|" + config.getKeypointGrid()
+                    + "|" + config.getMinTrackedRatio()
+                    + "|" + config.getStaticDifference()
+                    + "|" + config.isMotionVectors();
+            digest.update(settings.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            file.close();
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b & 0xff));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key key of the video, see {@link #key(String, VideoStabConfig)}.
+     * @return the cached motions, null when the cache has no valid entry for the key.
+     */
+    MotionTrack load(String key) {
+        File entry = new File(mDirectory, key + SUFFIX);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int count = in.readInt();
+            if (width <= 0 || height <= 0 || count < 0) {
+                return null;
+            }
+
+            MotionTrack motions = new MotionTrack(width, height);
+            double[] motion = new double[MotionMath.SIZE];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < MotionMath.SIZE; j++) {
+                    motion[j] = in.readFloat();
+                }
+                motions.add(motion);
+            }
+            // bytes after the motions, the entry is not the one written
+            return in.read() == -1 ? motions : null;
+        } catch (IOException e) {
+            // corrupted entry, estimate again
+            e.printStackTrace();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Stores the motions, the entry is written to a temporary file first so a concurrent or
+     * interrupted job never sees a partial entry.
+     */
+    void store(String key, MotionTrack motions) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create the motion cache " + mDirectory);
+        }
+
+        File temp = File.createTempFile(key, ".tmp", mDirectory);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(motions.getFrameWidth());
+            out.writeInt(motions.getFrameHeight());
+            out.writeInt(motions.size());
+
+            double[] array = motions.array();
+            for (int i = 0; i < motions.size() * MotionMath.SIZE; i++) {
+                out.writeFloat((float) array[i]);
+            }
+            // flush now so a failed write is not renamed to an entry
+            out.close();
+            out = null;
+        } finally {
+            close(out);
+        }
+
+        File entry = new File(mDirectory, key + SUFFIX);
+        if (!temp.renameTo(entry)) {
+            temp.delete();
+            throw new IOException("Can't write the motion cache entry " + entry);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
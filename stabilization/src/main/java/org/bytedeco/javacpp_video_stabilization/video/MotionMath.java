@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+/**
+ * 3x3 motion matrices stored row by row in {@code double[]} arrays.
+ *
+ * <p>
+ *     A motion maps the pixel coordinates of one frame to the coordinates of another frame,
+ *     like the matrices returned by the motion estimators of opencv_videostab.
+ *     Every method takes the array and the offset of the first element of the matrix, so a
+ *     whole video can be kept in one flat array.
+ * </p>
+ */
+final class MotionMath {
+
+    /** number of elements of a motion matrix */
+    static final int SIZE = 9;
+
+    private MotionMath() {
+    }
+
+    /**
+     * Writes the identity matrix.
+     */
+    static void identity(double[] m, int offset) {
+        for (int i = 0; i < SIZE; i++) {
+            m[offset + i] = (i % 4 == 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * res = a * b, res may not overlap a or b.
+     */
+    static void multiply(double[] a, int aOffset, double[] b, int bOffset, double[] res, int resOffset) {
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                res[resOffset + r * 3 + c] =
+                        a[aOffset + r * 3] * b[bOffset + c]
+                        + a[aOffset + r * 3 + 1] * b[bOffset + 3 + c]
+                        + a[aOffset + r * 3 + 2] * b[bOffset + 6 + c];
+            }
+        }
+    }
+
+    /**
+     * res = inverse of m, res may not overlap m.
+     *
+     * @return false when m is singular, res is the identity then.
+     */
+    static boolean invert(double[] m, int offset, double[] res, int resOffset) {
+        double a = m[offset], b = m[offset + 1], c = m[offset + 2];
+        double d = m[offset + 3], e = m[offset + 4], f = m[offset + 5];
+        double g = m[offset + 6], h = m[offset + 7], i = m[offset + 8];
+
+        double det = a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+        if (Math.abs(det) < 1e-12) {
+            identity(res, resOffset);
+            return false;
+        }
+
+        res[resOffset] = (e * i - f * h) / det;
+        res[resOffset + 1] = (c * h - b * i) / det;
+        res[resOffset + 2] = (b * f - c * e) / det;
+        res[resOffset + 3] = (f * g - d * i) / det;
+        res[resOffset + 4] = (a * i - c * g) / det;
+        res[resOffset + 5] = (c * d - a * f) / det;
+        res[resOffset + 6] = (d * h - e * g) / det;
+        res[resOffset + 7] = (b * g - a * h) / det;
+        res[resOffset + 8] = (a * e - b * d) / det;
+        return true;
+    }
+
+    /**
+     * Converts a motion estimated between two scaled copies of the frames to the coordinates
+     * of the original frames, i.e. S^-1 * m * S with S = diag(scaleX, scaleY, 1).
+     */
+    static void rescale(double[] m, int offset, double scaleX, double scaleY) {
+        m[offset + 1] *= scaleY / scaleX;
+        m[offset + 2] /= scaleX;
+        m[offset + 3] *= scaleX / scaleY;
+        m[offset + 5] /= scaleY;
+        m[offset + 6] *= scaleX;
+        m[offset + 7] *= scaleY;
+    }
+
+    /**
+     * Moves the motion towards the identity until the warped frame covers the trimmed area,
+     * like {@code cv::videostab::ensureInclusionConstraint}. Only the affine part is used.
+     *
+     * @param width width of the frame.
+     * @param height height of the frame.
+     * @param trimRatio part of each border trimmed after the warp.
+     */
+    static void ensureInclusion(double[] m, int offset, int width, int height, float trimRatio) {
+        double dx = Math.floor(width * trimRatio);
+        double dy = Math.floor(height * trimRatio);
+        double[] relaxed = new double[SIZE];
+
+        relax(m, offset, 0, relaxed);
+        if (covers(relaxed, width, height, dx, dy)) {
+            return;
+        }
+
+        double l = 0, r = 1;
+        while (r - l > 1e-3) {
+            double t = (l + r) * 0.5;
+            relax(m, offset, t, relaxed);
+            if (covers(relaxed, width, height, dx, dy)) {
+                l = t;
+            } else {
+                r = t;
+            }
+        }
+        relax(m, offset, r, relaxed);
+        System.arraycopy(relaxed, 0, m, offset, SIZE);
+    }
+
+    /**
+     * res = (1 - t) * m + t * I
+     */
+    private static void relax(double[] m, int offset, double t, double[] res) {
+        for (int i = 0; i < SIZE; i++) {
+            res[i] = (1 - t) * m[offset + i] + ((i % 4 == 0) ? t : 0);
+        }
+    }
+
+    /**
+     * @return true when the frame warped by m covers the trimmed rectangle.
+     */
+    private static boolean covers(double[] m, double w, double h, double dx, double dy) {
+        double[] quad = new double[8];
+        double[] corners = {0, 0, w, 0, w, h, 0, h};
+        for (int i = 0; i < 4; i++) {
+            double x = corners[2 * i], y = corners[2 * i + 1];
+            quad[2 * i] = m[0] * x + m[1] * y + m[2];
+            quad[2 * i + 1] = m[3] * x + m[4] * y + m[5];
+        }
+
+        double[] rect = {dx, dy, w - dx, dy, w - dx, h - dy, dx, h - dy};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                int k = (j + 1) % 4;
+                double cross = (quad[2 * k] - quad[2 * j]) * (rect[2 * i + 1] - quad[2 * j + 1])
+                        - (quad[2 * k + 1] - quad[2 * j + 1]) * (rect[2 * i] - quad[2 * j]);
+                if (cross < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the camera trajectory of a video and gives the stabilization motion of each frame.
+ *
+ * <p>
+ *     Works like the motion filters of opencv_videostab: the stabilization motion of frame
+ *     {@code k} is the weighted mean of the motions from frame {@code k} to the frames in
+ *     {@code [k - radius, k + radius]}. With {@code C(i)} the motion from the first frame to
+ *     frame {@code i}, this is {@code (sum w(i - k) C(i) / sum w) * C(k)^-1}, the window being
+ *     cut at both ends of the video.
+ * </p>
+ *
+ * <p>
+ *     The weights are the ones of {@link VideoStabConfig.SmoothingFilter}. The whole trajectory
+ *     is filtered in {@code O(n)} whatever the radius: the moving average is one box filter
+ *     computed with a running sum, the gaussian is approximated by three successive box filters
+ *     of the same variance. The trajectory is kept in primitive arrays, 9 doubles per frame.
+ * </p>
+ */
+class MotionSmoother {
+
+    /** box filters approximating the gaussian */
+    private static final int GAUSSIAN_BOXES = 3;
+
+    private final int radius;
+    private final VideoStabConfig.SmoothingFilter filter;
+    private final double[] weights;
+
+    /**
+     * @param radius radius of the filter, the gaussian weights are {@code exp(-d^2 / radius)}.
+     * @param filter weights of the frames of the window.
+     */
+    MotionSmoother(int radius, VideoStabConfig.SmoothingFilter filter) {
+        this.radius = Math.max(0, radius);
+        this.filter = filter;
+        this.weights = new double[2 * this.radius + 1];
+
+        double stdev = Math.sqrt(this.radius);
+        for (int i = -this.radius; i <= this.radius; i++) {
+            weights[i + this.radius] = filter == VideoStabConfig.SmoothingFilter.GAUSSIAN && stdev > 0
+                    ? Math.exp(-i * i / (stdev * stdev)) : 1;
+        }
+    }
+
+    /**
+     * @param distance distance between two frames, in {@code [-radius, radius]}.
+     * @return exact weight of a frame at this distance.
+     */
+    double weight(int distance) {
+        return weights[radius + distance];
+    }
+
+    /**
+     * @param motions motions between consecutive frames.
+     * @return stabilization motion of each frame, frame {@code k} starts at
+     * {@code k * MotionMath.SIZE}.
+     */
+    double[] stabilize(MotionTrack motions) {
+        final int n = motions.frameCount();
+        final int size = MotionMath.SIZE;
+
+        // cumulative motions from the first frame
+        double[] cumulative = new double[n * size];
+        MotionMath.identity(cumulative, 0);
+        for (int i = 1; i < n; i++) {
+            MotionMath.multiply(motions.array(), (i - 1) * size, cumulative, (i - 1) * size, cumulative, i * size);
+        }
+
+        // the sums of the weights are the same filters applied to ones
+        double[] mean = cumulative.clone();
+        double[] sums = new double[n];
+        Arrays.fill(sums, 1);
+        double[] scratch = new double[n * size];
+        for (int halfWidth : boxes()) {
+            box(mean, scratch, n, size, halfWidth);
+            box(sums, scratch, n, 1, halfWidth);
+        }
+
+        double[] stabilization = new double[n * size];
+        double[] inverse = new double[size];
+        for (int k = 0; k < n; k++) {
+            int offset = k * size;
+            for (int j = 0; j < size; j++) {
+                mean[offset + j] /= sums[k];
+            }
+            MotionMath.invert(cumulative, offset, inverse, 0);
+            MotionMath.multiply(mean, offset, inverse, 0, stabilization, offset);
+        }
+        return stabilization;
+    }
+
+    /**
+     * @return half widths of the box filters applied in turn.
+     */
+    private int[] boxes() {
+        if (radius == 0) {
+            return new int[0];
+        }
+        if (filter == VideoStabConfig.SmoothingFilter.MOVING_AVERAGE) {
+            return new int[]{radius};
+        }
+
+        // widths of odd boxes whose variances (w^2 - 1) / 12 add up to the variance radius / 2
+        double variance = radius / 2.0;
+        int lower = (int) Math.floor(Math.sqrt(12 * variance / GAUSSIAN_BOXES + 1));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        long lowerCount = Math.round((12 * variance - GAUSSIAN_BOXES * (double) lower * lower
+                - 4.0 * GAUSSIAN_BOXES * lower - 3.0 * GAUSSIAN_BOXES) / (-4.0 * lower - 4));
+
+        int[] halfWidths = new int[GAUSSIAN_BOXES];
+        for (int i = 0; i < GAUSSIAN_BOXES; i++) {
+            int width = i < lowerCount ? lower : upper;
+            halfWidths[i] = Math.min(radius, (width - 1) / 2);
+        }
+        return halfWidths;
+    }
+
+    /**
+     * Replaces each element by the sum of the elements in {@code [k - halfWidth, k + halfWidth]},
+     * the elements out of the array count as 0. Runs in {@code O(n)} with a running sum.
+     *
+     * @param values {@code n} elements of {@code size} doubles, filtered in place.
+     * @param scratch at least {@code n * size} doubles.
+     */
+    private static void box(double[] values, double[] scratch, int n, int size, int halfWidth) {
+        double[] sum = new double[size];
+        for (int i = 0; i < Math.min(halfWidth, n); i++) {
+            for (int j = 0; j < size; j++) {
+                sum[j] += values[i * size + j];
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            int enter = k + halfWidth;
+            int leave = k - halfWidth - 1;
+            for (int j = 0; j < size; j++) {
+                if (enter < n) {
+                    sum[j] += values[enter * size + j];
+                }
+                if (leave >= 0) {
+                    sum[j] -= values[leave * size + j];
+                }
+                scratch[k * size + j] = sum[j];
+            }
+        }
+        System.arraycopy(scratch, 0, values, 0, n * size);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import java.util.Arrays;
+
+/**
+ * Motions estimated between each pair of consecutive frames of a video.
+ *
+ * <p>
+ *     Motion {@code i} maps the coordinates of frame {@code i} to the coordinates of frame
+ *     {@code i + 1}, a video of {@code n} frames has {@code n - 1} motions. The matrices are
+ *     stored row by row in one {@code double[]}, see {@link MotionMath}.
+ * </p>
+ */
+class MotionTrack {
+
+    /** size of the frames the motions are expressed in */
+    private final int frameWidth;
+    private final int frameHeight;
+
+    private double[] motions = new double[64 * MotionMath.SIZE];
+    private int count;
+
+    MotionTrack(int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    /**
+     * Appends the motion to the next frame.
+     *
+     * @param motion 3x3 matrix, row by row.
+     */
+    void add(double[] motion) {
+        if ((count + 1) * MotionMath.SIZE > motions.length) {
+            motions = Arrays.copyOf(motions, motions.length * 2);
+        }
+        System.arraycopy(motion, 0, motions, count * MotionMath.SIZE, MotionMath.SIZE);
+        count++;
+    }
+
+    /**
+     * Appends the motions of the frames following this track, the first frame of the other
+     * track must be the last frame of this track.
+     */
+    void addAll(MotionTrack other) {
+        double[] motion = new double[MotionMath.SIZE];
+        for (int i = 0; i < other.size(); i++) {
+            System.arraycopy(other.motions, i * MotionMath.SIZE, motion, 0, MotionMath.SIZE);
+            add(motion);
+        }
+    }
+
+    /**
+     * @return number of motions.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return number of frames of the video.
+     */
+    int frameCount() {
+        return count + 1;
+    }
+
+    int getFrameWidth() {
+        return frameWidth;
+    }
+
+    int getFrameHeight() {
+        return frameHeight;
+    }
+
+    /**
+     * @return all motions, motion {@code i} starts at {@code i * MotionMath.SIZE}.
+     */
+    double[] array() {
+        return motions;
+    }
+}
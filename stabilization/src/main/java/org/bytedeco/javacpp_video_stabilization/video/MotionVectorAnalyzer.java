@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.BoolPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec.AVCodec;
+import org.bytedeco.javacpp.avcodec.AVCodecContext;
+import org.bytedeco.javacpp.avcodec.AVCodecParameters;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.bytedeco.javacpp.avutil.AVFrame;
+import org.bytedeco.javacpp.avutil.AVFrameSideData;
+import org.bytedeco.javacpp.avutil.AVMotionVector;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_videostab.MotionEstimatorRansacL2;
+
+import java.io.IOException;
+
+import static org.bytedeco.javacpp.avcodec.avcodec_alloc_context3;
+import static org.bytedeco.javacpp.avcodec.avcodec_find_decoder;
+import static org.bytedeco.javacpp.avcodec.avcodec_free_context;
+import static org.bytedeco.javacpp.avcodec.avcodec_open2;
+import static org.bytedeco.javacpp.avcodec.avcodec_parameters_to_context;
+import static org.bytedeco.javacpp.avcodec.avcodec_receive_frame;
+import static org.bytedeco.javacpp.avcodec.avcodec_send_packet;
+import static org.bytedeco.javacpp.avcodec.av_packet_alloc;
+import static org.bytedeco.javacpp.avcodec.av_packet_free;
+import static org.bytedeco.javacpp.avcodec.av_packet_unref;
+import static org.bytedeco.javacpp.avformat.av_find_best_stream;
+import static org.bytedeco.javacpp.avformat.av_read_frame;
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
+import static org.bytedeco.javacpp.avformat.avformat_open_input;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.javacpp.avutil.AV_FRAME_DATA_MOTION_VECTORS;
+import static org.bytedeco.javacpp.avutil.AV_PICTURE_TYPE_B;
+import static org.bytedeco.javacpp.avutil.AV_PICTURE_TYPE_I;
+import static org.bytedeco.javacpp.avutil.AV_PICTURE_TYPE_P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NV12;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NV21;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV422P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV444P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ422P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ444P;
+import static org.bytedeco.javacpp.avutil.av_dict_free;
+import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_frame_alloc;
+import static org.bytedeco.javacpp.avutil.av_frame_free;
+import static org.bytedeco.javacpp.avutil.av_frame_get_side_data;
+import static org.bytedeco.javacpp.avutil.av_frame_unref;
+import static org.bytedeco.javacpp.opencv_core.CV_32FC2;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+
+/**
+ * First pass of the stabilization from the motion vectors of the decoder: the H.264 and MPEG-4
+ * part 2 decoders of FFmpeg export the vectors of the blocks of each frame as side data, and
+ * the motion of the frame is the model of {@link VideoStabConfig#getMotionMode()} fitted to
+ * them with the same RANSAC L2 estimator as the keypoints. The other decoders, e.g. HEVC,
+ * export no vector: their streams are left to the {@link ParallelMotionAnalyzer}.
+ *
+ * <p>
+ *     The video is decoded with libavcodec directly, without converting the frames to BGR.
+ *     The luma plane of each frame gives the gray proxy of {@link MotionAnalyzer}, the keypoints
+ *     estimate the motion of the intra frames, of the frames with too few vectors and of the
+ *     frames whose fit is rejected by {@link VideoStabConfig#getMinInLierRatio()}.
+ * </p>
+ *
+ * <p>
+ *     A vector only tells whether its block comes from a past or a future frame, not from which
+ *     one. The vectors are taken as coming from the previous frame, so only the streams with a
+ *     single reference frame are analysed here, the pixel formats without an 8 bit luma plane
+ *     neither: both are known from the first frame, before any motion is estimated. In a
+ *     stream with B-frames, the B-frames and the P-frame following them do not reference the
+ *     previous frame, the keypoints estimate these pairs. The position of a block in the
+ *     previous frame keeps the sub-pixel precision of its vector.
+ * </p>
+ */
+class MotionVectorAnalyzer {
+
+    /** vectors needed to fit a motion */
+    private static final int MIN_VECTORS = 16;
+
+    private final VideoStabConfig mVideoStabConfig;
+    private final MatPool mMatPool;
+    private final StabilizationMetrics mMetrics;
+    private final MotionEstimatorRansacL2 mEstimator;
+    private final BoolPointer mOk = new BoolPointer(1);
+
+    /** pairs estimated from the vectors and from the keypoints */
+    private int mFitted;
+    private int mFallbacks;
+
+    MotionVectorAnalyzer(VideoStabConfig config, MatPool pool, StabilizationMetrics metrics) {
+        mVideoStabConfig = config;
+        mMatPool = pool;
+        mMetrics = metrics;
+        mEstimator = MotionAnalyzer.createRansac(config);
+    }
+
+    /**
+     * @param sourceVideo path of the video.
+     * @param token stops the analysis when cancelled.
+     * @return motions of the video, null when its stream can not be analysed from its motion
+     * vectors.
+     */
+    MotionTrack analyze(String sourceVideo, CancellationToken token) throws IOException {
+        AVFormatContext format = new AVFormatContext(null);
+        if (avformat_open_input(format, sourceVideo, null, null) < 0) {
+            throw new IOException("Could not open " + sourceVideo);
+        }
+        AVCodecContext codec = null;
+        AVPacket packet = null;
+        AVFrame frame = null;
+        MotionAnalyzer analyzer = new MotionAnalyzer(mVideoStabConfig, mMatPool, mMetrics);
+        Pass pass = new Pass(analyzer);
+        try {
+            if (avformat_find_stream_info(format, (PointerPointer) null) < 0) {
+                throw new IOException("Could not read the streams of " + sourceVideo);
+            }
+            int stream = av_find_best_stream(format, AVMEDIA_TYPE_VIDEO, -1, -1, (PointerPointer) null, 0);
+            if (stream < 0) {
+                return null;
+            }
+            AVCodecParameters parameters = format.streams(stream).codecpar();
+            AVCodec decoder = avcodec_find_decoder(parameters.codec_id());
+            if (decoder == null || decoder.isNull()) {
+                return null;
+            }
+            codec = avcodec_alloc_context3(decoder);
+            avcodec_parameters_to_context(codec, parameters);
+            AVDictionary options = new AVDictionary(null);
+            av_dict_set(options, "flags2", "+export_mvs", 0);
+            av_dict_set(options, "threads", "auto", 0);
+            int opened = avcodec_open2(codec, decoder, options);
+            av_dict_free(options);
+            if (opened < 0) {
+                return null;
+            }
+
+            packet = av_packet_alloc();
+            frame = av_frame_alloc();
+            while (av_read_frame(format, packet) >= 0) {
+                try {
+                    if (packet.stream_index() == stream && avcodec_send_packet(codec, packet) >= 0) {
+                        while (avcodec_receive_frame(codec, frame) >= 0) {
+                            token.throwIfCancelled();
+                            boolean analysed = pass.next(codec, frame);
+                            av_frame_unref(frame);
+                            if (!analysed) {
+                                return null;
+                            }
+                        }
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            // frames left in the decoder
+            avcodec_send_packet(codec, null);
+            while (avcodec_receive_frame(codec, frame) >= 0) {
+                token.throwIfCancelled();
+                boolean analysed = pass.next(codec, frame);
+                av_frame_unref(frame);
+                if (!analysed) {
+                    return null;
+                }
+            }
+
+            StabilizationLog.d(">>>stab", "Motion vectors: " + mFitted + " pairs, keypoints: " + mFallbacks + " pairs");
+            return pass.motions;
+        } finally {
+            pass.release();
+            analyzer.release();
+            if (frame != null) {
+                av_frame_free(frame);
+            }
+            if (packet != null) {
+                av_packet_free(packet);
+            }
+            if (codec != null) {
+                avcodec_free_context(codec);
+            }
+            avformat_close_input(format);
+        }
+    }
+
+    /**
+     * Frees the estimator, the analyzer can't be used afterwards.
+     */
+    void release() {
+        mEstimator.deallocate();
+        mOk.deallocate();
+    }
+
+    /**
+     * Motions of the decoded frames, in order.
+     */
+    private final class Pass {
+        final MotionAnalyzer analyzer;
+        MotionTrack motions;
+        Mat prevProxy;
+        final double[] motion = new double[MotionMath.SIZE];
+
+        /** true once a predicted frame has shown that the decoder exports the vectors */
+        boolean hasVectors;
+
+        /** type of the previous frame, a P-frame after a B-frame references an older frame */
+        int prevType = AV_PICTURE_TYPE_I;
+
+        Pass(MotionAnalyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+
+        /**
+         * @return false when the stream can not be analysed from its vectors: a frame without
+         * an 8 bit luma plane, several reference frames or a decoder exporting no vector. The
+         * refs of the stream are known once its first frame is decoded.
+         */
+        boolean next(AVCodecContext codec, AVFrame frame) {
+            if (!isSupported(frame.format()) || codec.refs() > 1) {
+                return false;
+            }
+            if (!hasVectors && frame.pict_type() != AV_PICTURE_TYPE_I) {
+                // the first predicted frame tells whether the decoder exports the vectors
+                AVFrameSideData sideData = av_frame_get_side_data(frame, AV_FRAME_DATA_MOTION_VECTORS);
+                if (sideData == null || sideData.isNull()) {
+                    return false;
+                }
+                hasVectors = true;
+            }
+            int width = frame.width();
+            int height = frame.height();
+            Mat luma = new Mat(height, width, CV_8UC1, frame.data(0), frame.linesize(0));
+            Mat proxy = MotionAnalyzer.proxy(luma, mVideoStabConfig.getProxyScale(), mMatPool);
+            luma.release();
+
+            if (motions == null) {
+                motions = new MotionTrack(width, height);
+            } else {
+                long started = mMetrics.start();
+                // only a P-frame following an I or P-frame references the previous frame
+                if (frame.pict_type() == AV_PICTURE_TYPE_P && prevType != AV_PICTURE_TYPE_B
+                        && fit(frame, motion)) {
+                    // the next keypoints pair does not follow this one
+                    analyzer.reset();
+                    mFitted++;
+                } else {
+                    analyzer.estimate(prevProxy, proxy, (double) proxy.cols() / width,
+                            (double) proxy.rows() / height, motion);
+                    mFallbacks++;
+                }
+                mMetrics.stop(StabilizationMetrics.Stage.ESTIMATE, started);
+                motions.add(motion);
+            }
+            if (prevProxy != null) {
+                mMatPool.release(prevProxy);
+            }
+            prevProxy = proxy;
+            prevType = frame.pict_type();
+            return true;
+        }
+
+        void release() {
+            if (prevProxy != null) {
+                mMatPool.release(prevProxy);
+                prevProxy = null;
+            }
+        }
+    }
+
+    /**
+     * Fits the motion from the previous frame to this frame to the vectors of its blocks.
+     *
+     * @param res motion of the frame when it could be fitted.
+     * @return false when the frame has too few vectors or the fit is rejected.
+     */
+    private boolean fit(AVFrame frame, double[] res) {
+        AVFrameSideData sideData = av_frame_get_side_data(frame, AV_FRAME_DATA_MOTION_VECTORS);
+        if (sideData == null || sideData.isNull()) {
+            return false;
+        }
+        int count = (int) (sideData.size() / Loader.sizeof(AVMotionVector.class));
+        AVMotionVector vectors = new AVMotionVector(sideData.data());
+
+        // at most a keypoint budget of vectors, spread on the whole frame
+        int step = Math.max(1, count / Math.max(MIN_VECTORS, mVideoStabConfig.getKeypointBudget()));
+        Mat points0 = new Mat(count / step + 1, 1, CV_32FC2);
+        Mat points1 = new Mat(count / step + 1, 1, CV_32FC2);
+        FloatIndexer first = points0.createIndexer();
+        FloatIndexer second = points1.createIndexer();
+        int used = 0;
+        for (int i = 0; i < count; i += step) {
+            AVMotionVector vector = vectors.position(i);
+            // the blocks predicted from a past frame, the previous one with a single reference
+            if (vector.source() >= 0 || vector.motion_scale() <= 0) {
+                continue;
+            }
+            // src_x / src_y are rounded to whole pixels, the vector keeps its sub-pixel part
+            float scale = vector.motion_scale();
+            first.put(used, 0, 0, vector.dst_x() + vector.motion_x() / scale);
+            first.put(used, 0, 1, vector.dst_y() + vector.motion_y() / scale);
+            second.put(used, 0, 0, vector.dst_x());
+            second.put(used, 0, 1, vector.dst_y());
+            used++;
+        }
+        first.release();
+        second.release();
+
+        try {
+            if (used < MIN_VECTORS) {
+                return false;
+            }
+            Mat motion = mEstimator.estimate(points0.rowRange(0, used), points1.rowRange(0, used), mOk);
+            boolean fitted = mOk.get() && !motion.empty();
+            if (fitted) {
+                MotionAnalyzer.copy(motion, res);
+            }
+            motion.release();
+            return fitted;
+        } finally {
+            points0.release();
+            points1.release();
+        }
+    }
+
+    /**
+     * @return true for the pixel formats whose first plane is an 8 bit luma plane.
+     */
+    private static boolean isSupported(int pixelFormat) {
+        return pixelFormat == AV_PIX_FMT_YUV420P || pixelFormat == AV_PIX_FMT_YUVJ420P
+                || pixelFormat == AV_PIX_FMT_YUV422P || pixelFormat == AV_PIX_FMT_YUVJ422P
+                || pixelFormat == AV_PIX_FMT_YUV444P || pixelFormat == AV_PIX_FMT_YUVJ444P
+                || pixelFormat == AV_PIX_FMT_NV12 || pixelFormat == AV_PIX_FMT_NV21;
+    }
+}
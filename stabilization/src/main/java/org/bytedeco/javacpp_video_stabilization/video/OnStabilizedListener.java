@@ -52,7 +52,19 @@ public interface OnStabilizedListener {
     void onProcess(int indexFrame, opencv_core.Mat frame);
 
     /**
-     * Called has processing has finished.
+     * Called when the job has been cancelled, by a cancel or its deadline, before
+     * {@link #onFinished()}.
+     */
+    void onCancelled();
+
+    /**
+     * Called when the job failed, before {@link #onFinished()}.
+     * @param error cause of the failure.
+     */
+    void onFailed(Exception error);
+
+    /**
+     * Called has processing has finished, completed, cancelled or failed.
      */
     void onFinished();
 }
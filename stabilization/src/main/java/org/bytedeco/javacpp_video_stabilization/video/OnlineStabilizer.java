@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Stabilizes a stream of frames in a single pass, frame {@code k} comes out as soon as frame
+ * {@code k + radius} has been pushed.
+ *
+ * <p>
+ *     Only a window of the stream is kept: the frames not yet stabilized, at most
+ *     {@code radius + 1}, and the motions between the frames of {@code [k - radius, k + radius]}.
+ *     The memory does not depend on the length of the stream, so it can be endless.
+ * </p>
+ *
+ * <p>
+ *     The frames of the window are copied into a {@link FrameRing} allocated at the first frame.
+ *     When {@code radius + 1} frames do not fit in {@link VideoStabConfig#getFrameMemoryCap()},
+ *     the look-ahead is shrunk to the frames that fit, the look-behind keeps the whole radius
+ *     since it only needs the motions.
+ * </p>
+ *
+ * <p>
+ *     The smoothing uses the exact weights of {@link MotionSmoother#weight(int)} over the
+ *     window. With the moving average the motions of each frame are the same as the ones of the
+ *     two pass stabilization of the whole video, with the gaussian they are very close, the two
+ *     pass smoothing approximating the gaussian with box filters.
+ * </p>
+ */
+class OnlineStabilizer {
+
+    private final int mRadius;
+
+    /** frames after the frame to stabilize, the radius unless the memory cap shrinks it */
+    private int mAhead;
+
+    /** bytes of the frames of the window at most, 0 for no cap */
+    private final long mMemoryCap;
+
+    /** frames of the window, created at the first frame */
+    private FrameRing mRing;
+    private final MotionSmoother mSmoother;
+    private final MotionAnalyzer mAnalyzer;
+    private final FrameWarper mWarper;
+
+    /** frames waiting for their look-ahead, the oldest first */
+    private final Deque<Mat> mFrames = new ArrayDeque<>();
+
+    /** motions between the frames of the window, the oldest first */
+    private final List<double[]> mMotions = new ArrayList<>();
+
+    /** number of motions of the window before the next frame to stabilize */
+    private int mBefore;
+
+    private final double[] mStabilization = new double[MotionMath.SIZE];
+
+    /** timings of the estimation and of the warp */
+    private final StabilizationMetrics mMetrics;
+
+    /**
+     * @param config video stab configs.
+     * @param rotation clockwise rotation of the output in degrees, see {@link FrameWarper}.
+     * @param outputSize size the output fits in, null to keep the size of the trimmed frames.
+     * @param pool buffers of the frames.
+     * @param metrics timings of the estimation and of the warp.
+     */
+    OnlineStabilizer(VideoStabConfig config, int rotation, Size outputSize, MatPool pool,
+                     StabilizationMetrics metrics) {
+        mRadius = Math.max(0, config.getStabRadius());
+        mAhead = mRadius;
+        mMemoryCap = config.getFrameMemoryCap();
+        mSmoother = new MotionSmoother(mRadius, config.getSmoothingFilter());
+        mAnalyzer = new MotionAnalyzer(config, pool, metrics);
+        mWarper = new FrameWarper(config, null, rotation, outputSize, pool);
+        mMetrics = metrics;
+    }
+
+    /**
+     * @param frame next frame of the stream, not modified, it is copied into the window.
+     * @return next stabilized frame, null while the look-ahead of the frame is not complete.
+     */
+    Mat push(Mat frame) {
+        double[] motion = new double[MotionMath.SIZE];
+        long started = mMetrics.start();
+        boolean hasMotion = mAnalyzer.next(frame, motion);
+        mMetrics.stop(StabilizationMetrics.Stage.ESTIMATE, started);
+        if (hasMotion) {
+            mMotions.add(motion);
+        }
+        if (mRing == null) {
+            createRing(frame);
+        } else if (!mRing.fits(frame)) {
+            throw new IllegalArgumentException("Frame size changed: " + frame.cols() + "x" + frame.rows());
+        }
+        mFrames.addLast(mRing.put(frame));
+
+        if (mFrames.size() > mAhead) {
+            return stabilizeNext();
+        }
+        return null;
+    }
+
+    /**
+     * Stabilizes the frames left at the end of the stream.
+     *
+     * @return next stabilized frame, null when every frame has been stabilized.
+     */
+    Mat flush() {
+        if (mFrames.isEmpty()) {
+            return null;
+        }
+        return stabilizeNext();
+    }
+
+    /**
+     * Releases the frames left in the window, the analyzer and the warper.
+     */
+    void release() {
+        mAnalyzer.release();
+        mWarper.release();
+        mFrames.clear();
+        mMotions.clear();
+        if (mRing != null) {
+            mRing.release();
+            mRing = null;
+        }
+    }
+
+    /**
+     * Allocates the ring of the window for frames like this one.
+     */
+    private void createRing(Mat frame) {
+        long frameBytes = frame.total() * frame.elemSize();
+        int capacity = FrameRing.capacity(frameBytes, mMemoryCap, mRadius + 1);
+        mAhead = capacity - 1;
+        if (mAhead < mRadius) {
+            StabilizationLog.d(">>>stab", "Look-ahead shrunk to " + mAhead + " frames by the memory cap");
+        }
+        mRing = new FrameRing(frame.rows(), frame.cols(), frame.type(), capacity);
+    }
+
+    private Mat stabilizeNext() {
+        Mat frame = mFrames.pollFirst();
+        window(mSmoother, mMotions, mBefore, mFrames.size(), mStabilization);
+        long started = mMetrics.start();
+        Mat stabilized = mWarper.warp(frame, mStabilization, 0);
+        mMetrics.stop(StabilizationMetrics.Stage.WARP, started);
+
+        // slide the window
+        if (mBefore < mRadius) {
+            mBefore++;
+        } else if (!mMotions.isEmpty()) {
+            mMotions.remove(0);
+        }
+        return stabilized;
+    }
+
+    /**
+     * Weighted mean of the motions from frame {@code k} to the frames of its window.
+     *
+     * @param smoother weights of the frames of the window.
+     * @param motions motions between the frames of the window, the oldest first.
+     * @param before number of frames of the window before frame {@code k}.
+     * @param after number of frames of the window after frame {@code k}.
+     * @param stabilization receives the stabilization motion of frame {@code k}.
+     */
+    static void window(MotionSmoother smoother, List<double[]> motions, int before, int after,
+                       double[] stabilization) {
+        final int size = MotionMath.SIZE;
+
+        double[] mean = new double[size];
+        double[] motion = new double[size];
+        double[] next = new double[size];
+        double[] inverse = new double[size];
+
+        // the frame itself
+        double weight = smoother.weight(0);
+        double sum = weight;
+        MotionMath.identity(motion, 0);
+        add(mean, weight, motion);
+
+        // frames after, motion from this frame to frame k + j
+        for (int j = 1; j <= after; j++) {
+            MotionMath.multiply(motions.get(before + j - 1), 0, motion, 0, next, 0);
+            System.arraycopy(next, 0, motion, 0, size);
+            weight = smoother.weight(j);
+            add(mean, weight, motion);
+            sum += weight;
+        }
+
+        // frames before, motion from this frame to frame k - j
+        MotionMath.identity(motion, 0);
+        for (int j = 1; j <= before; j++) {
+            MotionMath.multiply(motion, 0, motions.get(before - j), 0, next, 0);
+            System.arraycopy(next, 0, motion, 0, size);
+            MotionMath.invert(motion, 0, inverse, 0);
+            weight = smoother.weight(-j);
+            add(mean, weight, inverse);
+            sum += weight;
+        }
+
+        for (int j = 0; j < size; j++) {
+            stabilization[j] = mean[j] / sum;
+        }
+    }
+
+    private static void add(double[] mean, double weight, double[] motion) {
+        for (int j = 0; j < mean.length; j++) {
+            mean[j] += weight * motion[j];
+        }
+    }
+}
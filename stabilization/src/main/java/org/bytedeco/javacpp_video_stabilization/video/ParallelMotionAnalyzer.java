@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estimates the motions of a whole video with several threads.
+ *
+ * <p>
+ *     The frames are decoded in order, turned into proxies on the calling thread, and cut into
+ *     runs of consecutive pairs estimated by a pool of {@link VideoStabConfig#getAnalysisThreads()}
+ *     workers. A task borrows a {@link MotionAnalyzer} no other task is using, the estimator and
+ *     the detector are never shared between threads, and the analyzers are released with the
+ *     pool at the end of the analysis. Without keypoint tracking the motion of a pair does not
+ *     depend on the other frames and each pair is a task of its own. With tracking, the keypoints
+ *     are carried from pair to pair, so a task estimates {@link #TRACKED_PAIRS_PER_TASK} pairs in
+ *     order and detects the keypoints again at its first pair.
+ * </p>
+ *
+ * <p>
+ *     At most {@link #TASKS_PER_THREAD} tasks per worker, or two tasks for runs of tracked
+ *     pairs, wait in the pool, so a decoder faster than the estimation does not keep every proxy
+ *     of the video in memory.
+ * </p>
+ */
+class ParallelMotionAnalyzer {
+
+    /** tasks of one pair queued for each worker */
+    static final int TASKS_PER_THREAD = 4;
+
+    /** pairs of a task when the keypoints are tracked */
+    static final int TRACKED_PAIRS_PER_TASK = 8;
+
+    private final VideoStabConfig mVideoStabConfig;
+
+    /** buffers of the proxies */
+    private final MatPool mMatPool;
+
+    /** timings of the estimation */
+    private final StabilizationMetrics mMetrics;
+
+    ParallelMotionAnalyzer(VideoStabConfig config, MatPool pool, StabilizationMetrics metrics) {
+        mVideoStabConfig = config;
+        mMatPool = pool;
+        mMetrics = metrics;
+    }
+
+    /**
+     * @return pairs estimated by each task.
+     */
+    static int pairsPerTask(VideoStabConfig config) {
+        return config.isKeypointTracking() ? TRACKED_PAIRS_PER_TASK : 1;
+    }
+
+    /**
+     * @return tasks waiting for each worker.
+     */
+    static int tasksPerThread(VideoStabConfig config) {
+        return config.isKeypointTracking() ? 2 : TASKS_PER_THREAD;
+    }
+
+    /**
+     * @return proxies kept in memory at most by the queued tasks.
+     */
+    static long queuedProxies(VideoStabConfig config) {
+        return (long) Math.max(1, config.getAnalysisThreads())
+                * tasksPerThread(config) * (pairsPerTask(config) + 1);
+    }
+
+    /**
+     * Proxy of a frame shared by the tasks it belongs to, the last proxy of a task is also the
+     * first one of the next task.
+     */
+    private final class Proxy {
+        final Mat mat;
+
+        /** tasks still using the proxy */
+        final AtomicInteger users = new AtomicInteger(1);
+
+        Proxy(Mat mat) {
+            this.mat = mat;
+        }
+
+        void done() {
+            if (users.decrementAndGet() == 0) {
+                mMatPool.release(mat);
+            }
+        }
+    }
+
+    /**
+     * @param frameSource source frames, read until the end of the stream.
+     * @return motions of the video, null when the source has no frame.
+     */
+    MotionTrack analyze(MyFrameSource frameSource) throws InterruptedException, ExecutionException {
+        final int threads = Math.max(1, mVideoStabConfig.getAnalysisThreads());
+        final float scale = mVideoStabConfig.getProxyScale();
+        final int pairsPerTask = pairsPerTask(mVideoStabConfig);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Semaphore queued = new Semaphore(threads * tasksPerThread(mVideoStabConfig));
+        final Analyzers analyzers = new Analyzers();
+
+        MotionTrack motions = null;
+        List<Future<double[][]>> tasks = new ArrayList<>();
+        List<Proxy> run = new ArrayList<>();
+        double scaleX = 1;
+        double scaleY = 1;
+        try {
+            Mat frame;
+            while (!(frame = frameSource.nextFrame()).empty()) {
+                if (motions == null) {
+                    motions = new MotionTrack(frame.cols(), frame.rows());
+                }
+                Proxy proxy = new Proxy(MotionAnalyzer.proxy(frame, scale, mMatPool));
+                scaleX = (double) proxy.mat.cols() / frame.cols();
+                scaleY = (double) proxy.mat.rows() / frame.rows();
+                frameSource.releaseFrame(frame);
+
+                run.add(proxy);
+                if (run.size() == pairsPerTask + 1) {
+                    // the last proxy also starts the next run
+                    proxy.users.incrementAndGet();
+                    List<Proxy> full = run;
+                    run = new ArrayList<>();
+                    run.add(proxy);
+                    tasks.add(submit(pool, queued, analyzers, full, scaleX, scaleY));
+                }
+            }
+            List<Proxy> last = run;
+            run = null;
+            if (last.size() > 1) {
+                tasks.add(submit(pool, queued, analyzers, last, scaleX, scaleY));
+            } else if (last.size() == 1) {
+                // the last frame has no pair after it
+                last.get(0).done();
+            }
+
+            // ordered motions
+            for (Future<double[][]> task : tasks) {
+                for (double[] motion : task.get()) {
+                    motions.add(motion);
+                }
+            }
+            return motions;
+        } finally {
+            // the queued tasks skip their pairs and release their proxies
+            analyzers.stopped.set(true);
+            pool.shutdown();
+            boolean terminated = false;
+            try {
+                terminated = pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } finally {
+                if (run != null) {
+                    // proxies read but not submitted yet
+                    for (Proxy proxy : run) {
+                        proxy.done();
+                    }
+                }
+                if (terminated) {
+                    analyzers.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyzers of the workers, each one used by one task at a time.
+     */
+    private final class Analyzers {
+        private final ConcurrentLinkedQueue<MotionAnalyzer> idle = new ConcurrentLinkedQueue<>();
+        private final List<MotionAnalyzer> created = new ArrayList<>();
+
+        /** set when the analysis ends early, the tasks not started yet skip their pairs */
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        MotionAnalyzer acquire() {
+            MotionAnalyzer analyzer = idle.poll();
+            if (analyzer == null) {
+                analyzer = new MotionAnalyzer(mVideoStabConfig, mMatPool, mMetrics);
+                synchronized (created) {
+                    created.add(analyzer);
+                }
+            }
+            return analyzer;
+        }
+
+        void release(MotionAnalyzer analyzer) {
+            analyzer.reset();
+            idle.add(analyzer);
+        }
+
+        /**
+         * Releases every analyzer, once no task runs any more.
+         */
+        void release() {
+            synchronized (created) {
+                for (MotionAnalyzer analyzer : created) {
+                    analyzer.release();
+                }
+                created.clear();
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * Queues the estimation of the pairs of a run of consecutive proxies, waits while the pool
+     * is full. The task releases the proxies of the run, or this method when it is interrupted.
+     */
+    private Future<double[][]> submit(ExecutorService pool, final Semaphore queued,
+                                      final Analyzers analyzers,
+                                      final List<Proxy> run,
+                                      final double scaleX, final double scaleY)
+            throws InterruptedException {
+        try {
+            queued.acquire();
+        } catch (InterruptedException e) {
+            for (Proxy proxy : run) {
+                proxy.done();
+            }
+            throw e;
+        }
+        return pool.submit(new Callable<double[][]>() {
+            @Override
+            public double[][] call() {
+                if (analyzers.stopped.get()) {
+                    for (Proxy proxy : run) {
+                        proxy.done();
+                    }
+                    queued.release();
+                    return null;
+                }
+                MotionAnalyzer analyzer = analyzers.acquire();
+                try {
+                    double[][] motions = new double[run.size() - 1][MotionMath.SIZE];
+                    for (int i = 0; i < motions.length; i++) {
+                        long started = mMetrics.start();
+                        analyzer.estimate(run.get(i).mat, run.get(i + 1).mat, scaleX, scaleY, motions[i]);
+                        mMetrics.stop(StabilizationMetrics.Stage.ESTIMATE, started);
+                    }
+                    return motions;
+                } finally {
+                    analyzers.release(analyzer);
+                    for (Proxy proxy : run) {
+                        proxy.done();
+                    }
+                    queued.release();
+                }
+            }
+        });
+    }
+}
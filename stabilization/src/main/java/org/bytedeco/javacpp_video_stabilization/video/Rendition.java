@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+/**
+ * One of the videos written by a stabilization job, see
+ * {@link VideoStabilization#setRenditions(java.util.List)}.
+ *
+ * <p>
+ *     The frames are stabilized once, then each rendition scales them to fit its size and
+ *     encodes them to its own file.
+ * </p>
+ */
+public class Rendition {
+
+    /** the codec of the job, {@link VideoStabConfig#getEncoderCodec()} */
+    public static final int JOB_CODEC = -1;
+
+    private final String mPath;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mCodec;
+
+    /**
+     * @param path path of the video, its extension is {@link VideoStabConfig#getOutputFormat()}.
+     * @param width width the frames fit in, after the rotation, 0 to keep the stabilized size.
+     * @param height height the frames fit in, after the rotation, 0 to keep the stabilized size.
+     */
+    public Rendition(String path, int width, int height) {
+        this(path, width, height, JOB_CODEC);
+    }
+
+    /**
+     * @param path path of the video, its extension is {@link VideoStabConfig#getOutputFormat()}.
+     * @param width width the frames fit in, after the rotation, 0 to keep the stabilized size.
+     * @param height height the frames fit in, after the rotation, 0 to keep the stabilized size.
+     * @param codec codec of the video, e.g. AV_CODEC_ID_H264, or {@link #JOB_CODEC}. Only the
+     *              default {@link FFmpegFrameEncoder} honours it.
+     */
+    public Rendition(String path, int width, int height, int codec) {
+        mPath = path;
+        mWidth = width;
+        mHeight = height;
+        mCodec = codec;
+    }
+
+    /**
+     * @return the same rendition written to another path.
+     */
+    Rendition withPath(String path) {
+        return new Rendition(path, mWidth, mHeight, mCodec);
+    }
+
+    /**
+     * @return true when the frames are scaled to fit a size.
+     */
+    boolean isScaled() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getCodec() {
+        return mCodec;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * Last stage of a job writing several {@link Rendition}s: each stabilized frame is handed to a
+ * writer thread per rendition, which scales it to the size of its rendition and encodes it.
+ *
+ * <p>
+ *     The frame is shared by the writers, not copied, and goes back to the {@link MatPool} once
+ *     every writer is done with it. Each writer drains its own queue at its own pace, handing a
+ *     frame over never waits for a writer. Only the number of frames not yet written by every
+ *     writer is bounded, so a slow writer holds back the stabilization once it lags that many
+ *     frames behind, while the faster writers keep encoding. A writer that failed keeps draining
+ *     its queue, the error is thrown by the next frame.
+ * </p>
+ */
+class RenditionFanOut implements FramePipeline.Sink {
+
+    /** stabilized frame shared by the writers */
+    private static final class Shared {
+        final Mat frame;
+
+        /** writers still using the frame */
+        final AtomicInteger users;
+
+        Shared(Mat frame, int users) {
+            this.frame = frame;
+            this.users = new AtomicInteger(users);
+        }
+    }
+
+    /** frame waiting in the queue of a writer */
+    private static final class Packet {
+        /** marks the end of the stream */
+        static final Packet END = new Packet(null);
+
+        final Shared shared;
+
+        Packet(Shared shared) {
+            this.shared = shared;
+        }
+    }
+
+    /** scales and encodes the frames of one rendition on its own thread */
+    private final class Writer implements Runnable {
+        final Rendition rendition;
+        final FrameEncoder encoder;
+        final BlockingQueue<Packet> queue;
+        Thread thread;
+        Size size;
+
+        Writer(Rendition rendition, FrameEncoder encoder) {
+            this.rendition = rendition;
+            this.encoder = encoder;
+            this.queue = new LinkedBlockingQueue<>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Packet packet = queue.take();
+                    if (packet == Packet.END) {
+                        break;
+                    }
+                    try {
+                        if (mFailure == null) {
+                            write(packet.shared.frame);
+                        }
+                    } catch (Exception e) {
+                        fail(e);
+                    } finally {
+                        done(packet.shared);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // the job is shutting down
+            }
+        }
+
+        private void write(Mat frame) throws Exception {
+            if (size == null) {
+                Size target = rendition.isScaled()
+                        ? new Size(rendition.getWidth(), rendition.getHeight()) : null;
+                size = FrameWarper.fit(frame.cols(), frame.rows(), target);
+                encoder.start(rendition.getPath(), size.width(), size.height(), mFrameRate);
+            }
+            if (size.width() == frame.cols() && size.height() == frame.rows()) {
+                long started = mMetrics.start();
+                encoder.encode(frame);
+                mMetrics.stop(StabilizationMetrics.Stage.ENCODE, started);
+                return;
+            }
+
+            long started = mMetrics.start();
+            Mat scaled = mMatPool.acquire(size.height(), size.width(), frame.type());
+            resize(frame, scaled, size, 0, 0, INTER_AREA);
+            mMetrics.stop(StabilizationMetrics.Stage.SCALE, started);
+            try {
+                started = mMetrics.start();
+                encoder.encode(scaled);
+                mMetrics.stop(StabilizationMetrics.Stage.ENCODE, started);
+            } finally {
+                mMatPool.release(scaled);
+            }
+        }
+    }
+
+    private final List<Writer> mWriters = new ArrayList<>();
+    private final double mFrameRate;
+    private final MatPool mMatPool;
+    private final StabilizationMetrics mMetrics;
+
+    /** frames handed over and not yet written by every writer */
+    private final Semaphore mInFlight;
+
+    /** first error thrown by a writer */
+    private volatile Exception mFailure;
+
+    /**
+     * @param renditions renditions written.
+     * @param encoders encoder of each rendition, not started, stopped by the caller.
+     * @param frameRate frame rate of the videos.
+     * @param depth frames buffered per writer, at least 1. The writers share
+     *              {@code depth * renditions} frames, a writer may lag that many frames behind.
+     * @param pool buffers of the frames, the stabilized frames go back to it.
+     * @param metrics timings of the scale and of the encode.
+     */
+    RenditionFanOut(List<Rendition> renditions, List<FrameEncoder> encoders, double frameRate,
+                    int depth, MatPool pool, StabilizationMetrics metrics) {
+        mFrameRate = frameRate;
+        mMatPool = pool;
+        mMetrics = metrics;
+        mInFlight = new Semaphore(Math.max(1, depth) * renditions.size());
+        for (int i = 0; i < renditions.size(); i++) {
+            mWriters.add(new Writer(renditions.get(i), encoders.get(i)));
+        }
+    }
+
+    /**
+     * Starts a thread for each rendition.
+     */
+    void start() {
+        for (int i = 0; i < mWriters.size(); i++) {
+            Writer writer = mWriters.get(i);
+            mMetrics.watchQueue(">>>stab-rendition" + i, writer.queue);
+            writer.thread = new Thread(writer, ">>>stab-rendition" + i);
+            writer.thread.start();
+        }
+    }
+
+    /**
+     * @param index index of the frame in the stream.
+     * @param frame stabilized frame, owned by the fan out.
+     */
+    @Override
+    public void accept(int index, Mat frame) throws Exception {
+        if (mFailure != null) {
+            mMatPool.release(frame);
+            throw mFailure;
+        }
+        try {
+            mInFlight.acquire();
+        } catch (InterruptedException e) {
+            mMatPool.release(frame);
+            throw e;
+        }
+        Shared shared = new Shared(frame, mWriters.size());
+        for (Writer writer : mWriters) {
+            writer.queue.add(new Packet(shared));
+        }
+    }
+
+    /**
+     * Waits until every writer has encoded its frames.
+     *
+     * @throws Exception the first error thrown by a writer.
+     */
+    void finish() throws Exception {
+        for (Writer writer : mWriters) {
+            writer.queue.add(Packet.END);
+        }
+        for (Writer writer : mWriters) {
+            writer.thread.join();
+        }
+        if (mFailure != null) {
+            throw mFailure;
+        }
+    }
+
+    /**
+     * Stops the writers and releases the frames still waiting in their queues.
+     */
+    void release() {
+        for (Writer writer : mWriters) {
+            if (writer.thread != null) {
+                writer.thread.interrupt();
+            }
+        }
+        for (Writer writer : mWriters) {
+            if (writer.thread != null) {
+                try {
+                    writer.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                writer.thread = null;
+            }
+            mMetrics.unwatchQueue(writer.queue);
+            Packet packet;
+            while ((packet = writer.queue.poll()) != null) {
+                if (packet != Packet.END) {
+                    done(packet.shared);
+                }
+            }
+        }
+    }
+
+    private void done(Shared shared) {
+        if (shared.users.decrementAndGet() == 0) {
+            mMatPool.release(shared.frame);
+            mInFlight.release();
+        }
+    }
+
+    private void fail(Exception e) {
+        if (mFailure == null) {
+            mFailure = e;
+        }
+    }
+}
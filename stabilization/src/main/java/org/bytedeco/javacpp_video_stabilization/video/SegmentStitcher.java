@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.FrameRecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Joins the videos of the segments of a long video into one file.
+ *
+ * <p>
+ *     The segments are read with the concat demuxer of FFmpeg, which shifts the timestamps of
+ *     each segment after the previous one, and their packets are copied to the output without
+ *     being decoded or encoded again. Every segment must use the same codec and frame size.
+ * </p>
+ */
+final class SegmentStitcher {
+
+    private SegmentStitcher() {
+    }
+
+    /**
+     * @param segments paths of the segment videos, in order.
+     * @param output path of the joined video.
+     */
+    static void concat(List<String> segments, String output)
+            throws IOException, FrameGrabber.Exception, FrameRecorder.Exception {
+        File list = File.createTempFile("stab_segments", ".txt", new File(output).getAbsoluteFile().getParentFile());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(list), "UTF-8");
+        try {
+            for (String segment : segments) {
+                String path = new File(segment).getAbsolutePath();
+                writer.write("file '" + path.replace("'", "'\\''") + "'\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(list.getPath());
+        grabber.setFormat("concat");
+        grabber.setOption("safe", "0");
+        FFmpegFrameRecorder recorder = null;
+        try {
+            grabber.start();
+
+            recorder = new FFmpegFrameRecorder(output, grabber.getImageWidth(), grabber.getImageHeight(), 0);
+            recorder.setVideoCodec(grabber.getVideoCodec());
+            recorder.setFrameRate(grabber.getFrameRate());
+            recorder.start(grabber.getFormatContext());
+
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                recorder.recordPacket(packet);
+            }
+        } finally {
+            if (recorder != null) {
+                recorder.stop();
+                recorder.release();
+            }
+            grabber.stop();
+            grabber.release();
+            list.delete();
+        }
+    }
+}
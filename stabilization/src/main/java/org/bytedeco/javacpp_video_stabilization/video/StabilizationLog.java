@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+/**
+ * Log of the stabilization engine, the messages go to a pluggable {@link Logger} so the engine
+ * runs on Android as well as on a plain JVM.
+ *
+ * <p>
+ *     The messages are printed to the standard error until {@link #setLogger(Logger)} is called,
+ *     an Android app usually forwards them to {@code android.util.Log}.
+ * </p>
+ */
+public final class StabilizationLog {
+
+    /**
+     * Receives the debug messages of the engine, from any thread.
+     */
+    public interface Logger {
+        void d(String tag, String msg);
+    }
+
+    /** prints the messages to the standard error */
+    public static final Logger STDERR = new Logger() {
+        @Override
+        public void d(String tag, String msg) {
+            System.err.println("D/" + tag + ": " + msg);
+        }
+    };
+
+    /** drops every message */
+    public static final Logger NONE = new Logger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+    };
+
+    private static volatile Logger sLogger = STDERR;
+
+    private StabilizationLog() {
+    }
+
+    /**
+     * @param logger receives the messages of every job, null to drop them.
+     */
+    public static void setLogger(Logger logger) {
+        sLogger = logger != null ? logger : NONE;
+    }
+
+    static void d(String tag, String msg) {
+        sLogger.d(tag, msg);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.Pointer;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and gauges of a stabilization job, see {@link VideoStabilization#setMetrics(StabilizationMetrics)}.
+ *
+ * <ur>
+ *     <li>latency histogram of each {@link Stage}, the time spent on each frame.</li>
+ *     <li>frames encoded per second since the job started.</li>
+ *     <li>frames waiting in the queues between the stages.</li>
+ *     <li>pairs of frames whose motion estimation was skipped as static.</li>
+ *     <li>native bytes of the frame buffers and of the JavaCPP allocations.</li>
+ * </ur>
+ *
+ * <p>
+ *     Every value can be read from any thread while the job runs, {@link #summary()} formats
+ *     them at the end of the job. The stages only call {@link System#nanoTime()} when the
+ *     metrics are enabled, a job without metrics uses {@link #DISABLED}.
+ * </p>
+ */
+public class StabilizationMetrics {
+
+    /** metrics of a job nobody reads, records nothing */
+    static final StabilizationMetrics DISABLED = new StabilizationMetrics(false);
+
+    /**
+     * Timed stages of a job. The rotation of the output is part of {@link #WARP}.
+     */
+    public enum Stage {
+        /** decode a frame and copy it out of the grabber */
+        DECODE,
+        /** estimate the motion between two frames */
+        ESTIMATE,
+        /** smooth the trajectory of the whole video, once per job */
+        SMOOTH,
+        /** stabilize, trim and rotate a frame */
+        WARP,
+        /** encode a frame */
+        ENCODE,
+        /** scale a stabilized frame to a rendition */
+        SCALE
+    }
+
+    /**
+     * Latency histogram with power of two buckets, bucket {@code i} counts the durations of
+     * {@code [2^(i-1), 2^i)} nanoseconds. The percentiles are the upper bound of their bucket.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMaxNanos.get()) && !mMaxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public double getTotalMillis() {
+            return mTotalNanos.get() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotalNanos.get() / 1e6 / count;
+        }
+
+        public double getMaxMillis() {
+            return mMaxNanos.get() / 1e6;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return upper bound of the latency of this percentile.
+         */
+        public double getPercentileMillis(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((double) (1L << Math.min(62, i)), mMaxNanos.get()) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+
+    /** a queue between two stages */
+    private static final class WatchedQueue {
+        final String name;
+        final Collection<?> queue;
+
+        WatchedQueue(String name, Collection<?> queue) {
+            this.name = name;
+            this.queue = queue;
+        }
+    }
+
+    private final boolean mEnabled;
+    private final Histogram[] mHistograms = new Histogram[Stage.values().length];
+    private final CopyOnWriteArrayList<WatchedQueue> mQueues = new CopyOnWriteArrayList<>();
+    private final AtomicLong mSkippedPairs = new AtomicLong();
+    private final AtomicLong mFrames = new AtomicLong();
+    private volatile MatPool mMatPool;
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+
+    public StabilizationMetrics() {
+        this(true);
+    }
+
+    private StabilizationMetrics(boolean enabled) {
+        mEnabled = enabled;
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return start time of a stage, 0 when the metrics are disabled.
+     */
+    long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param stage stage done.
+     * @param start value of {@link #start()} before the stage.
+     */
+    void stop(Stage stage, long start) {
+        if (mEnabled) {
+            mHistograms[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Resets the metrics at the start of a job.
+     *
+     * @param pool frame buffers of the job.
+     */
+    void jobStarted(MatPool pool) {
+        if (!mEnabled) {
+            return;
+        }
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mQueues.clear();
+        mSkippedPairs.set(0);
+        mFrames.set(0);
+        mMatPool = pool;
+        mEndNanos = 0;
+        mStartNanos = System.nanoTime();
+    }
+
+    void jobFinished() {
+        if (mEnabled) {
+            mEndNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Counts a pair of frames found static, its motion was not estimated.
+     */
+    void pairSkipped() {
+        if (mEnabled) {
+            mSkippedPairs.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a stabilized frame handed to the encoders, once whatever the number of renditions.
+     */
+    void frameWritten() {
+        if (mEnabled) {
+            mFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reports the size of a queue between two stages until {@link #unwatchQueue(Collection)}.
+     */
+    void watchQueue(String name, Collection<?> queue) {
+        if (mEnabled) {
+            mQueues.add(new WatchedQueue(name, queue));
+        }
+    }
+
+    void unwatchQueue(Collection<?> queue) {
+        if (!mEnabled) {
+            return;
+        }
+        for (WatchedQueue watched : mQueues) {
+            if (watched.queue == queue) {
+                mQueues.remove(watched);
+            }
+        }
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    /**
+     * @return frames stabilized and handed to the encoders per second since the start of the
+     * job, a frame written to several renditions counts once.
+     */
+    public double getFramesPerSecond() {
+        long start = mStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+        double seconds = (end - start) / 1e9;
+        return seconds <= 0 ? 0 : mFrames.get() / seconds;
+    }
+
+    /**
+     * @return pairs of frames found static since the start of the job, the identity was used
+     * instead of estimating their motion. They are also counted by the {@link Stage#ESTIMATE}
+     * histogram.
+     */
+    public long getSkippedPairs() {
+        return mSkippedPairs.get();
+    }
+
+    /**
+     * @return frames waiting in each queue, the queues of the same name are added up, e.g.
+     * the segments of a long video.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (WatchedQueue watched : mQueues) {
+            Integer depth = depths.get(watched.name);
+            depths.put(watched.name, (depth == null ? 0 : depth) + watched.queue.size());
+        }
+        return depths;
+    }
+
+    /**
+     * @return bytes of the frame buffers allocated by the {@link MatPool} of the job and not
+     * freed yet.
+     */
+    public long getFrameBufferBytes() {
+        MatPool pool = mMatPool;
+        return pool == null ? 0 : pool.allocatedBytes();
+    }
+
+    /**
+     * @return bytes allocated by JavaCPP and not deallocated yet.
+     */
+    public long getJavaCppBytes() {
+        return Pointer.totalBytes();
+    }
+
+    /**
+     * @return readable summary of the metrics.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "fps: %.1f, frame buffers: %d MB, javacpp: %d MB%n",
+                getFramesPerSecond(), getFrameBufferBytes() >> 20, getJavaCppBytes() >> 20));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            summary.append(String.format(Locale.US,
+                    "%-8s count: %d, mean: %.2f ms, p50: %.2f ms, p99: %.2f ms, max: %.2f ms, total: %.0f ms%n",
+                    stage, histogram.getCount(), histogram.getMeanMillis(),
+                    histogram.getPercentileMillis(50), histogram.getPercentileMillis(99),
+                    histogram.getMaxMillis(), histogram.getTotalMillis()));
+        }
+        summary.append(String.format(Locale.US, "static pairs skipped: %d of %d%n",
+                getSkippedPairs(), getHistogram(Stage.ESTIMATE).getCount()));
+        for (Map.Entry<String, Integer> depth : getQueueDepths().entrySet()) {
+            summary.append(depth.getKey()).append(" queue: ").append(depth.getValue()).append('\n');
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs many stabilization jobs, each with its own {@link VideoStabConfig}, within a budget of
+ * cores and of native memory.
+ *
+ * <p>
+ *     Each job is admitted with the cores and the memory it needs, see
+ *     {@link VideoStabilization#estimateCores()} and
+ *     {@link VideoStabilization#estimateNativeMemory()}. A job waits while the running jobs
+ *     leave too little of the budget for it. A job larger than the whole budget runs alone.
+ * </p>
+ *
+ * <p>
+ *     Waiting jobs are admitted by priority, the highest first, and in submission order for the
+ *     same priority. A smaller job never overtakes the first waiting job, so a 4K job is not
+ *     starved by a stream of small ones.
+ * </p>
+ */
+public class StabilizationScheduler {
+
+    private final int mCores;
+    private final long mMemoryBudget;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final PriorityQueue<Job> mWaiting = new PriorityQueue<>();
+
+    private int mUsedCores;
+    private long mUsedMemory;
+    private int mRunning;
+    private long mSequence;
+    private boolean mShutdown;
+
+    /**
+     * @param cores cores shared by the running jobs.
+     * @param memoryBudget bytes of native memory shared by the running jobs.
+     */
+    public StabilizationScheduler(int cores, long memoryBudget) {
+        mCores = Math.max(1, cores);
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * A job of the scheduler, {@link #cancel(boolean)} drops a waiting job and interrupts a
+     * running one. The budget of a running job is given back once its thread has returned.
+     */
+    private final class Job extends FutureTask<Void> implements Comparable<Job> {
+        final int priority;
+        final long sequence;
+        final int cores;
+        final long memory;
+        boolean started;
+
+        final VideoStabilization stabilization;
+
+        Job(final VideoStabilization stabilization, int priority, long sequence, int cores, long memory) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    stabilization.stabilizer();
+                }
+            }, null);
+            this.stabilization = stabilization;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.cores = cores;
+            this.memory = memory;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning && hasStarted(this)) {
+                // releases the native resources of the job at once, a waiting job is only
+                // dropped so its next run is not cancelled
+                stabilization.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            dropped(this);
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            // not Long.compare, it needs API 19 and the app runs on API 18
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * @see #submit(VideoStabilization, int)
+     */
+    public Future<Void> submit(VideoStabilization stabilization) throws FrameGrabber.Exception {
+        return submit(stabilization, 0);
+    }
+
+    /**
+     * Queues a job, its source is opened to estimate the resources it needs.
+     *
+     * @param stabilization the job, runs {@link VideoStabilization#stabilizer()}.
+     * @param priority higher priorities are admitted first.
+     * @return future of the job, done when the job has finished or has been cancelled.
+     */
+    public Future<Void> submit(VideoStabilization stabilization, int priority) throws FrameGrabber.Exception {
+        int cores = Math.min(mCores, stabilization.estimateCores());
+        long memory = stabilization.estimateNativeMemory();
+
+        synchronized (this) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            Job job = new Job(stabilization, priority, mSequence++, cores, memory);
+            mWaiting.add(job);
+            admit();
+            return job;
+        }
+    }
+
+    /**
+     * Cancels the waiting jobs, the running jobs finish.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+            Job job;
+            while ((job = mWaiting.poll()) != null) {
+                job.cancel(false);
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return number of jobs running.
+     */
+    public synchronized int getRunningJobs() {
+        return mRunning;
+    }
+
+    /**
+     * @return number of jobs waiting for the budget.
+     */
+    public synchronized int getWaitingJobs() {
+        return mWaiting.size();
+    }
+
+    private synchronized void admit() {
+        Job job;
+        while ((job = mWaiting.peek()) != null) {
+            boolean fits = mUsedCores + job.cores <= mCores && mUsedMemory + job.memory <= mMemoryBudget;
+            if (!fits && mRunning > 0) {
+                return;
+            }
+            mWaiting.poll();
+            job.started = true;
+            mUsedCores += job.cores;
+            mUsedMemory += job.memory;
+            mRunning++;
+            mExecutor.execute(job);
+        }
+    }
+
+    private synchronized void finished(Job job) {
+        mUsedCores -= job.cores;
+        mUsedMemory -= job.memory;
+        mRunning--;
+        admit();
+    }
+
+    private synchronized boolean hasStarted(Job job) {
+        return job.started;
+    }
+
+    private synchronized void dropped(Job job) {
+        if (!job.started) {
+            // cancelled while waiting
+            mWaiting.remove(job);
+            admit();
+        }
+    }
+}
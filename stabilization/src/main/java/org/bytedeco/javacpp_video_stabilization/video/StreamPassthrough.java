@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec.AVCodec;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVIOContext;
+import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.bytedeco.javacpp.avutil.AVDictionaryEntry;
+import org.bytedeco.javacpp.avutil.AVRational;
+
+import java.io.IOException;
+
+import static org.bytedeco.javacpp.avcodec.FF_COMPLIANCE_NORMAL;
+import static org.bytedeco.javacpp.avcodec.av_packet_alloc;
+import static org.bytedeco.javacpp.avcodec.av_packet_free;
+import static org.bytedeco.javacpp.avcodec.av_packet_rescale_ts;
+import static org.bytedeco.javacpp.avcodec.av_packet_unref;
+import static org.bytedeco.javacpp.avcodec.avcodec_parameters_copy;
+import static org.bytedeco.javacpp.avformat.AVFMT_NOFILE;
+import static org.bytedeco.javacpp.avformat.AVIO_FLAG_WRITE;
+import static org.bytedeco.javacpp.avformat.AVSEEK_FLAG_BACKWARD;
+import static org.bytedeco.javacpp.avformat.av_find_best_stream;
+import static org.bytedeco.javacpp.avformat.av_interleaved_write_frame;
+import static org.bytedeco.javacpp.avformat.av_read_frame;
+import static org.bytedeco.javacpp.avformat.av_seek_frame;
+import static org.bytedeco.javacpp.avformat.av_write_trailer;
+import static org.bytedeco.javacpp.avformat.avformat_alloc_output_context2;
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
+import static org.bytedeco.javacpp.avformat.avformat_free_context;
+import static org.bytedeco.javacpp.avformat.avformat_new_stream;
+import static org.bytedeco.javacpp.avformat.avformat_open_input;
+import static org.bytedeco.javacpp.avformat.avformat_query_codec;
+import static org.bytedeco.javacpp.avformat.avformat_write_header;
+import static org.bytedeco.javacpp.avformat.avio_closep;
+import static org.bytedeco.javacpp.avformat.avio_open;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_AUDIO;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.javacpp.avutil.AV_NOPTS_VALUE;
+import static org.bytedeco.javacpp.avutil.AV_TIME_BASE;
+import static org.bytedeco.javacpp.avutil.av_compare_ts;
+import static org.bytedeco.javacpp.avutil.av_dict_copy;
+import static org.bytedeco.javacpp.avutil.av_dict_get;
+import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_rescale_q;
+
+/**
+ * Adds the audio and the metadata of the source video to the stabilized video.
+ *
+ * <p>
+ *     The encoder writes the stabilized frames alone, then its video stream and the audio
+ *     streams of the source are copied packet by packet to the resulting file, interleaved by
+ *     their timestamps: the audio is neither decoded nor encoded again. The metadata of the
+ *     container, e.g. its creation time, and the ones of the streams are kept, the rotation of
+ *     the video stream less the rotation already applied by the warp.
+ * </p>
+ *
+ * <p>
+ *     The audio of a part of the source, see {@link VideoStabilization#setRange}, is cut to the
+ *     part and shifted to start with the video. The audio streams the format of the resulting
+ *     video can't hold are dropped.
+ * </p>
+ *
+ * <p>
+ *     The packets go through libavformat directly: a recorder of javacv started with
+ *     {@code start(AVFormatContext)} copies the packets of that single input, as
+ *     {@link SegmentStitcher} does, and can't mux the packets of two inputs.
+ * </p>
+ *
+ * <p>
+ *     Cost: the encoded video is read and written a second time and the source is demuxed again.
+ *     Only compressed packets are copied, which is small next to the encode, but the disk holds
+ *     both copies of the video until the encoded one is deleted.
+ * </p>
+ */
+final class StreamPassthrough {
+
+    private StreamPassthrough() {
+    }
+
+    /**
+     * @param sourceVideo path of the source video, only its audio packets are read.
+     * @param videoPath video written by the encoder, only its video stream is copied.
+     * @param output path of the resulting video.
+     * @param format format of the resulting video, see {@link VideoStabConfig#getOutputFormat()}.
+     * @param start time in the source of the first frame of the video, in microseconds.
+     * @param end time in the source after the last frame of the video, in microseconds, -1 until
+     *            the end of the source.
+     * @param rotate clockwise rotation applied to the frames by the warp, in degrees.
+     */
+    static void mux(String sourceVideo, String videoPath, String output, String format,
+                    long start, long end, int rotate) throws IOException {
+        AVFormatContext source = open(sourceVideo);
+        AVFormatContext video = null;
+        AVFormatContext muxer = null;
+        AVPacket videoPacket = null;
+        AVPacket audioPacket = null;
+        try {
+            video = open(videoPath);
+            int videoStream = av_find_best_stream(video, AVMEDIA_TYPE_VIDEO, -1, -1, (PointerPointer) null, 0);
+            if (videoStream < 0) {
+                throw new IOException("No video stream in " + videoPath);
+            }
+
+            muxer = new AVFormatContext(null);
+            if (avformat_alloc_output_context2(muxer, null, format, output) < 0) {
+                throw new IOException("Could not create the muxer of " + output);
+            }
+            AVDictionary metadata = new AVDictionary(null);
+            av_dict_copy(metadata, source.metadata(), 0);
+            muxer.metadata(metadata);
+
+            // the video, with the metadata of the video stream of the source
+            AVStream videoIn = video.streams(videoStream);
+            AVStream videoOut = newStream(muxer, videoIn);
+            int sourceVideoStream = av_find_best_stream(source, AVMEDIA_TYPE_VIDEO, -1, -1, (PointerPointer) null, 0);
+            if (sourceVideoStream >= 0) {
+                AVDictionary streamMetadata = new AVDictionary(null);
+                av_dict_copy(streamMetadata, source.streams(sourceVideoStream).metadata(), 0);
+                int rotation = ((rotation(streamMetadata) - rotate) % 360 + 360) % 360;
+                av_dict_set(streamMetadata, "rotate", rotation != 0 ? String.valueOf(rotation) : (String) null, 0);
+                videoOut.metadata(streamMetadata);
+            }
+
+            // the audio streams, by index in the source
+            AVStream[] audioOut = new AVStream[source.nb_streams()];
+            int audioStreams = 0;
+            for (int i = 0; i < source.nb_streams(); i++) {
+                AVStream stream = source.streams(i);
+                if (stream.codecpar().codec_type() != AVMEDIA_TYPE_AUDIO) {
+                    continue;
+                }
+                if (avformat_query_codec(muxer.oformat(), stream.codecpar().codec_id(), FF_COMPLIANCE_NORMAL) != 1) {
+                    StabilizationLog.d(">>>stab", "Audio stream " + i + " can't be written to " + format);
+                    continue;
+                }
+                audioOut[i] = newStream(muxer, stream);
+                AVDictionary streamMetadata = new AVDictionary(null);
+                av_dict_copy(streamMetadata, stream.metadata(), 0);
+                audioOut[i].metadata(streamMetadata);
+                audioStreams++;
+            }
+
+            if ((muxer.oformat().flags() & AVFMT_NOFILE) == 0) {
+                AVIOContext io = new AVIOContext(null);
+                if (avio_open(io, output, AVIO_FLAG_WRITE) < 0) {
+                    throw new IOException("Could not open " + output);
+                }
+                muxer.pb(io);
+            }
+            if (avformat_write_header(muxer, (PointerPointer) null) < 0) {
+                throw new IOException("Could not write the header of " + output);
+            }
+
+            // the source starts at its own start time, the stabilized video at 0
+            long startTime = source.start_time() != AV_NOPTS_VALUE ? source.start_time() : 0;
+            if (start > 0) {
+                av_seek_frame(source, -1, startTime + start, AVSEEK_FLAG_BACKWARD);
+            }
+            AudioReader audio = new AudioReader(source, audioOut, startTime + Math.max(0, start),
+                    end >= 0 ? startTime + end : -1);
+
+            videoPacket = av_packet_alloc();
+            audioPacket = av_packet_alloc();
+            boolean hasVideo = nextVideo(video, videoStream, videoPacket);
+            boolean hasAudio = audio.next(audioPacket);
+            while (hasVideo || hasAudio) {
+                AVStream audioIn = hasAudio ? source.streams(audioPacket.stream_index()) : null;
+                if (hasVideo && (!hasAudio || av_compare_ts(videoPacket.dts(), videoIn.time_base(),
+                        audioPacket.dts(), audioIn.time_base()) <= 0)) {
+                    write(muxer, videoPacket, videoIn, videoOut);
+                    hasVideo = nextVideo(video, videoStream, videoPacket);
+                } else {
+                    write(muxer, audioPacket, audioIn, audioOut[audioPacket.stream_index()]);
+                    hasAudio = audio.next(audioPacket);
+                }
+            }
+
+            if (av_write_trailer(muxer) < 0) {
+                throw new IOException("Could not write the trailer of " + output);
+            }
+            StabilizationLog.d(">>>stab", "Passthrough: " + audioStreams + " audio streams");
+        } finally {
+            if (videoPacket != null) {
+                av_packet_free(videoPacket);
+            }
+            if (audioPacket != null) {
+                av_packet_free(audioPacket);
+            }
+            if (muxer != null && !muxer.isNull()) {
+                if ((muxer.oformat().flags() & AVFMT_NOFILE) == 0 && muxer.pb() != null && !muxer.pb().isNull()) {
+                    avio_closep(muxer.pb());
+                }
+                avformat_free_context(muxer);
+            }
+            if (video != null) {
+                avformat_close_input(video);
+            }
+            avformat_close_input(source);
+        }
+    }
+
+    /**
+     * Reads the audio packets of the part of the source, their timestamps from the start of the
+     * part.
+     */
+    private static final class AudioReader {
+        final AVFormatContext source;
+        final AVStream[] outputs;
+        final long origin;
+        final long end;
+        final AVRational microseconds = new AVRational().num(1).den(AV_TIME_BASE);
+
+        /** audio streams read until the end of the part */
+        final boolean[] ended;
+        int endedCount;
+        int streamCount;
+
+        /**
+         * @param origin time of the first frame of the part, in microseconds of the source.
+         * @param end time after the last frame of the part, -1 until the end of the source.
+         */
+        AudioReader(AVFormatContext source, AVStream[] outputs, long origin, long end) {
+            this.source = source;
+            this.outputs = outputs;
+            this.origin = origin;
+            this.end = end;
+            this.ended = new boolean[outputs.length];
+            for (AVStream output : outputs) {
+                if (output != null) {
+                    streamCount++;
+                }
+            }
+        }
+
+        /**
+         * @return false at the end of the part.
+         */
+        boolean next(AVPacket packet) {
+            while (endedCount < streamCount && av_read_frame(source, packet) >= 0) {
+                int index = packet.stream_index();
+                if (index >= outputs.length || outputs[index] == null || ended[index]) {
+                    av_packet_unref(packet);
+                    continue;
+                }
+                AVRational timeBase = source.streams(index).time_base();
+                long time = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                long first = av_rescale_q(origin, microseconds, timeBase);
+                if (end >= 0 && time != AV_NOPTS_VALUE && time >= av_rescale_q(end, microseconds, timeBase)) {
+                    ended[index] = true;
+                    endedCount++;
+                    av_packet_unref(packet);
+                    continue;
+                }
+                if (time == AV_NOPTS_VALUE || time < first) {
+                    // before the first frame of the part
+                    av_packet_unref(packet);
+                    continue;
+                }
+                packet.pts(packet.pts() != AV_NOPTS_VALUE ? packet.pts() - first : AV_NOPTS_VALUE);
+                packet.dts(packet.dts() != AV_NOPTS_VALUE ? packet.dts() - first : packet.pts());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static AVFormatContext open(String path) throws IOException {
+        AVFormatContext format = new AVFormatContext(null);
+        if (avformat_open_input(format, path, null, null) < 0) {
+            throw new IOException("Could not open " + path);
+        }
+        if (avformat_find_stream_info(format, (PointerPointer) null) < 0) {
+            avformat_close_input(format);
+            throw new IOException("Could not read the streams of " + path);
+        }
+        return format;
+    }
+
+    /**
+     * @return stream of the muxer with the codec of the input stream.
+     */
+    private static AVStream newStream(AVFormatContext muxer, AVStream input) throws IOException {
+        AVStream stream = avformat_new_stream(muxer, (AVCodec) null);
+        if (stream == null || stream.isNull()
+                || avcodec_parameters_copy(stream.codecpar(), input.codecpar()) < 0) {
+            throw new IOException("Could not add a stream to the muxer");
+        }
+        // the tag of the codec is the one of the input container
+        stream.codecpar().codec_tag(0);
+        stream.time_base(input.time_base());
+        return stream;
+    }
+
+    /**
+     * @return false at the end of the video.
+     */
+    private static boolean nextVideo(AVFormatContext video, int stream, AVPacket packet) {
+        while (av_read_frame(video, packet) >= 0) {
+            if (packet.stream_index() == stream) {
+                return true;
+            }
+            av_packet_unref(packet);
+        }
+        return false;
+    }
+
+    private static void write(AVFormatContext muxer, AVPacket packet, AVStream input, AVStream output)
+            throws IOException {
+        av_packet_rescale_ts(packet, input.time_base(), output.time_base());
+        packet.stream_index(output.index());
+        packet.pos(-1);
+        // the muxer takes the data of the packet
+        if (av_interleaved_write_frame(muxer, packet) < 0) {
+            throw new IOException("Could not write a packet of stream " + output.index());
+        }
+    }
+
+    /**
+     * @return clockwise rotation of the {@code rotate} tag, 0 without it.
+     */
+    private static int rotation(AVDictionary metadata) {
+        AVDictionaryEntry entry = av_dict_get(metadata, "rotate", null, 0);
+        if (entry == null || entry.isNull()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(entry.value().getString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
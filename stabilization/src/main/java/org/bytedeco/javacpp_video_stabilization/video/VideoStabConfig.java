@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.opencv_videostab;
+import org.bytedeco.javacpp.opencv_videostab.RansacParams;
+
+import java.io.File;
+
+/**
+ * Created by chinhnq on 7/20/18.
+ *
+ * Create all config for video stabilization.
+ */
+public class VideoStabConfig {
+
+    /**
+     * Weights of the frames of the smoothing window.
+     */
+    public enum SmoothingFilter {
+        /** gaussian weights, the closest frames weigh the most */
+        GAUSSIAN,
+        /** same weight for every frame of the window */
+        MOVING_AVERAGE
+    }
+
+    public static final float MIN_INLIER_RATIO = 0.1f;
+    private float minInLierRatio = MIN_INLIER_RATIO;
+
+    /**
+     * estimate the motions from the motion vectors of the decoder when the stream has them,
+     * the keypoints are used for the other frames. Only the H.264 and MPEG-4 part 2 streams with
+     * a single reference frame are analysed this way, e.g. not the x264 default of 3 references.
+     * Their B-frames and the P-frames following them are estimated from the keypoints.
+     */
+    public static final boolean MOTION_VECTORS = false;
+    private boolean motionVectors = MOTION_VECTORS;
+
+    /**
+     * copy the audio packets and the metadata of the source to the resulting video, without
+     * decoding them. The encoded video is copied once more to add them, see StreamPassthrough.
+     */
+    public static final boolean STREAM_PASSTHROUGH = true;
+    private boolean streamPassthrough = STREAM_PASSTHROUGH;
+
+    /** keypoints tracked between the frames */
+    public static final int NKPS = 1000;
+    private int keypointBudget = NKPS;
+
+    /** track the keypoints from frame to frame, false to detect them again on every frame */
+    public static final boolean KEYPOINT_TRACKING = true;
+    private boolean keypointTracking = KEYPOINT_TRACKING;
+
+    /** cells on each side of the grid the keypoints are spread on */
+    public static final int KEYPOINT_GRID = 4;
+    private int keypointGrid = KEYPOINT_GRID;
+
+    /** the keypoints are detected again when fewer than this ratio of the budget is tracked */
+    public static final float MIN_TRACKED_RATIO = 0.5f;
+    private float minTrackedRatio = MIN_TRACKED_RATIO;
+
+    /**
+     * mean absolute difference of two gray proxies, in gray levels, below which the frames are
+     * taken as identical and their motion is not estimated, negative to estimate every pair
+     */
+    public static final float STATIC_DIFFERENCE = 0.5f;
+    private float staticDifference = STATIC_DIFFERENCE;
+
+    public static final boolean TWO_PASS = true;
+
+    /** scale of the gray proxy the motion is estimated on, 1 to estimate on the full frames */
+    public static final float PROXY_SCALE = 0.5f;
+    private float proxyScale = PROXY_SCALE;
+
+    /** threads estimating the motion between the pairs of frames */
+    public static final int ANALYSIS_THREADS = Runtime.getRuntime().availableProcessors();
+    private int analysisThreads = ANALYSIS_THREADS;
+
+    /** frames of each segment of a long video, 0 to never split the video */
+    public static final int SEGMENT_FRAMES = 9000;
+    private int segmentFrames = SEGMENT_FRAMES;
+
+    /** segments of a long video stabilized at the same time */
+    public static final int SEGMENT_THREADS = Runtime.getRuntime().availableProcessors();
+    private int segmentThreads = SEGMENT_THREADS;
+
+    /** radius using for gaussian filter */
+    public static final int RADIUS_PASS = 15;
+
+    /** trim frame after stabilized */
+    public static final boolean EST_TRIM = true;
+
+    public static final boolean INCLUSION = false;
+    private boolean isInclusion = INCLUSION;
+
+    public static final float TRIM_RATIO = 0.1f;
+    public static final int STAB_RADIUS = 15;
+
+    private int stabRadius = STAB_RADIUS;
+    private float stabTrimRatio = TRIM_RATIO;
+
+    /** frame rate of the resulting video when the source has none */
+    public static final int OUT_FPS = 25;
+    public String outVideoPath = null;
+
+    /** container of the resulting video, also its file extension */
+    public static final String OUTPUT_FORMAT = "mp4";
+    private String outputFormat = OUTPUT_FORMAT;
+
+    /** codec of the resulting video, e.g. AV_CODEC_ID_H264 or AV_CODEC_ID_HEVC */
+    public static final int ENCODER_CODEC = avcodec.AV_CODEC_ID_H264;
+    private int encoderCodec = ENCODER_CODEC;
+
+    /** threads of the encoder, 0 to let the codec choose */
+    public static final int ENCODER_THREADS = 0;
+    private int encoderThreads = ENCODER_THREADS;
+
+    /** speed / size trade-off of the encoder, null for the default of the codec */
+    public static final String ENCODER_PRESET = "veryfast";
+    private String encoderPreset = ENCODER_PRESET;
+
+    /** constant rate factor, lower is better quality, -1 for the default of the codec */
+    public static final int ENCODER_CRF = 23;
+    private int encoderCrf = ENCODER_CRF;
+
+    /** frames between two key frames */
+    public static final int ENCODER_GOP = 250;
+    private int encoderGop = ENCODER_GOP;
+
+    /** one frame out of this step is written to a preview */
+    public static final int PREVIEW_FRAME_STEP = 2;
+    private int previewFrameStep = PREVIEW_FRAME_STEP;
+
+    /** longest side of a preview in pixels, when no output size is given */
+    public static final int PREVIEW_MAX_SIDE = 640;
+    private int previewMaxSide = PREVIEW_MAX_SIDE;
+
+    /** number of frames buffered between two stages of the decode, warp, encode pipeline */
+    public static final int PIPELINE_DEPTH = 4;
+    private int pipelineDepth = PIPELINE_DEPTH;
+
+    /** decode the source video once and replay the frames for the second pass */
+    public static final boolean SINGLE_DECODE = true;
+    private boolean singleDecode = SINGLE_DECODE;
+
+    /** bytes of decoded frames kept in memory, the next frames are spilled to disk */
+    public static final long FRAME_CACHE_BYTES = 256L * 1024 * 1024;
+    private long frameCacheBytes = FRAME_CACHE_BYTES;
+
+    /**
+     * bytes of decoded frames spilled to disk, at most half of the free space of the spill
+     * directory: a longer video is decoded again for the second pass
+     */
+    public static final long FRAME_CACHE_DISK_BYTES = 4L * 1024 * 1024 * 1024;
+    private long frameCacheDiskBytes = FRAME_CACHE_DISK_BYTES;
+
+    /**
+     * bytes of frames a job may buffer beyond its pipeline queues, 0 for no cap: the look-ahead
+     * window of the online stabilization, the in-memory part of the frame cache
+     */
+    public static final long FRAME_MEMORY_CAP = 1024L * 1024 * 1024;
+    private long frameMemoryCap = FRAME_MEMORY_CAP;
+
+    /** directory of the spilled frames, null for the temporary directory */
+    private File frameCacheDir = null;
+
+    /** directory of the estimated motions kept between jobs, null to always estimate */
+    private File motionCacheDir = null;
+
+    /** filter smoothing the trajectory, it costs the same whatever the radius */
+    public static final SmoothingFilter SMOOTHING_FILTER = SmoothingFilter.GAUSSIAN;
+    private SmoothingFilter smoothingFilter = SMOOTHING_FILTER;
+
+
+    private RansacParams ransacParams;
+
+    /** RANSAC configs*/
+    public static final int RANSAC_SIZE = 3;
+    public static final int RANSAC_THRESH = 5;
+    public static final float RANSAC_ESP = 0.5f;
+
+    /** subset size */
+    private int ransacSize = RANSAC_SIZE;
+
+    /** max error to classify as inlier */
+    private int ransacThresh = RANSAC_THRESH;
+
+    /** max outliers ratio */
+    private float ransacEPS = RANSAC_ESP;
+
+    /** motion model */
+    private int motionMode = opencv_videostab.MM_AFFINE;
+
+    private BorderTypes borderTypes = BorderTypes.BORDER_REPLICATE;
+
+    public VideoStabConfig() {
+        ransacParams = new RansacParams();
+    }
+
+    public void setRansacParams(RansacParams ransacParams) {
+        ransacParams.size(getRansacSize());
+        ransacParams.thresh(getRansacThresh());
+        ransacParams.eps(getRansacEPS());
+        this.ransacParams = ransacParams;
+    }
+
+    public int getRansacSize() {
+        return ransacSize;
+    }
+
+    public void setRansacSize(int ransacSize) {
+        this.ransacSize = ransacSize;
+    }
+
+    public int getRansacThresh() {
+        return ransacThresh;
+    }
+
+    public void setRansacThresh(int ransacThresh) {
+        this.ransacThresh = ransacThresh;
+    }
+
+    public float getRansacEPS() {
+        return ransacEPS;
+    }
+
+    public void setRansacEPS(float ransacEPS) {
+        this.ransacEPS = ransacEPS;
+    }
+
+    public String getOutVideoPath() {
+        return outVideoPath;
+    }
+
+    public void setOutVideoPath(String outVideoPath) {
+        this.outVideoPath = outVideoPath;
+    }
+
+    public BorderTypes getBorderTypes() {
+        return borderTypes;
+    }
+
+    public void setBorderTypes(BorderTypes borderTypes) {
+        this.borderTypes = borderTypes;
+    }
+
+    public int getStabRadius() {
+        return stabRadius;
+    }
+
+    public void setStabRadius(int stabRadius) {
+        this.stabRadius = stabRadius;
+    }
+
+    public float getStabTrimRatio() {
+        return stabTrimRatio;
+    }
+
+    public void setStabTrimRatio(float stabTrimRatio) {
+        this.stabTrimRatio = stabTrimRatio;
+    }
+
+    public boolean isInclusion() {
+        return isInclusion;
+    }
+
+    public void setInclusion(boolean inclusion) {
+        isInclusion = inclusion;
+    }
+
+    public float getMinInLierRatio() {
+        return minInLierRatio;
+    }
+
+    public void setMinInLierRatio(float minInLierRatio) {
+        this.minInLierRatio = minInLierRatio;
+    }
+
+    public int getMotionMode() {
+        return motionMode;
+    }
+
+    public void setMotionMode(int motionMode) {
+        this.motionMode = motionMode;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public boolean isSingleDecode() {
+        return singleDecode;
+    }
+
+    public void setSingleDecode(boolean singleDecode) {
+        this.singleDecode = singleDecode;
+    }
+
+    public long getFrameCacheBytes() {
+        return frameCacheBytes;
+    }
+
+    public void setFrameCacheBytes(long frameCacheBytes) {
+        this.frameCacheBytes = frameCacheBytes;
+    }
+
+    public long getFrameCacheDiskBytes() {
+        return frameCacheDiskBytes;
+    }
+
+    public void setFrameCacheDiskBytes(long frameCacheDiskBytes) {
+        this.frameCacheDiskBytes = frameCacheDiskBytes;
+    }
+
+    public File getFrameCacheDir() {
+        return frameCacheDir;
+    }
+
+    public void setFrameCacheDir(File frameCacheDir) {
+        this.frameCacheDir = frameCacheDir;
+    }
+
+    public float getProxyScale() {
+        return proxyScale;
+    }
+
+    public void setProxyScale(float proxyScale) {
+        this.proxyScale = proxyScale;
+    }
+
+    public File getMotionCacheDir() {
+        return motionCacheDir;
+    }
+
+    public void setMotionCacheDir(File motionCacheDir) {
+        this.motionCacheDir = motionCacheDir;
+    }
+
+    public int getAnalysisThreads() {
+        return analysisThreads;
+    }
+
+    public void setAnalysisThreads(int analysisThreads) {
+        this.analysisThreads = analysisThreads;
+    }
+
+    public int getSegmentFrames() {
+        return segmentFrames;
+    }
+
+    public void setSegmentFrames(int segmentFrames) {
+        this.segmentFrames = segmentFrames;
+    }
+
+    public int getSegmentThreads() {
+        return segmentThreads;
+    }
+
+    public void setSegmentThreads(int segmentThreads) {
+        this.segmentThreads = segmentThreads;
+    }
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public int getEncoderCodec() {
+        return encoderCodec;
+    }
+
+    public void setEncoderCodec(int encoderCodec) {
+        this.encoderCodec = encoderCodec;
+    }
+
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+    }
+
+    public String getEncoderPreset() {
+        return encoderPreset;
+    }
+
+    public void setEncoderPreset(String encoderPreset) {
+        this.encoderPreset = encoderPreset;
+    }
+
+    public int getEncoderCrf() {
+        return encoderCrf;
+    }
+
+    public void setEncoderCrf(int encoderCrf) {
+        this.encoderCrf = encoderCrf;
+    }
+
+    public int getEncoderGop() {
+        return encoderGop;
+    }
+
+    public void setEncoderGop(int encoderGop) {
+        this.encoderGop = encoderGop;
+    }
+
+    public int getKeypointBudget() {
+        return keypointBudget;
+    }
+
+    public void setKeypointBudget(int keypointBudget) {
+        this.keypointBudget = keypointBudget;
+    }
+
+    public boolean isKeypointTracking() {
+        return keypointTracking;
+    }
+
+    public void setKeypointTracking(boolean keypointTracking) {
+        this.keypointTracking = keypointTracking;
+    }
+
+    public int getKeypointGrid() {
+        return keypointGrid;
+    }
+
+    public void setKeypointGrid(int keypointGrid) {
+        this.keypointGrid = keypointGrid;
+    }
+
+    public float getMinTrackedRatio() {
+        return minTrackedRatio;
+    }
+
+    public void setMinTrackedRatio(float minTrackedRatio) {
+        this.minTrackedRatio = minTrackedRatio;
+    }
+
+    public SmoothingFilter getSmoothingFilter() {
+        return smoothingFilter;
+    }
+
+    public void setSmoothingFilter(SmoothingFilter smoothingFilter) {
+        this.smoothingFilter = smoothingFilter;
+    }
+
+    public long getFrameMemoryCap() {
+        return frameMemoryCap;
+    }
+
+    public void setFrameMemoryCap(long frameMemoryCap) {
+        this.frameMemoryCap = frameMemoryCap;
+    }
+
+    public float getStaticDifference() {
+        return staticDifference;
+    }
+
+    public void setStaticDifference(float staticDifference) {
+        this.staticDifference = staticDifference;
+    }
+
+    public int getPreviewFrameStep() {
+        return previewFrameStep;
+    }
+
+    public void setPreviewFrameStep(int previewFrameStep) {
+        this.previewFrameStep = previewFrameStep;
+    }
+
+    public int getPreviewMaxSide() {
+        return previewMaxSide;
+    }
+
+    public void setPreviewMaxSide(int previewMaxSide) {
+        this.previewMaxSide = previewMaxSide;
+    }
+
+    public boolean isMotionVectors() {
+        return motionVectors;
+    }
+
+    public void setMotionVectors(boolean motionVectors) {
+        this.motionVectors = motionVectors;
+    }
+
+    public boolean isStreamPassthrough() {
+        return streamPassthrough;
+    }
+
+    public void setStreamPassthrough(boolean streamPassthrough) {
+        this.streamPassthrough = streamPassthrough;
+    }
+}
@@ -0,0 +1,1690 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_videostab.IFrameSource;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * Created by chinhnq on 7/12/18.
+ *
+ * <p>Video stabilization refers to a family of methods used to reduce the blurring associated with the
+ * motion of the camera. In other words, it compensates for any angular movement, equivalent to yaw,
+ * pitch, roll, and x and y translations of the camera. The first image stabilizers appeared in the early 60s.
+ * These systems were able to slightly compensate for camera shakes and involuntary movements.
+ * They were controlled by gyroscopes and accelerometers based on mechanisms that could cancel or
+ * reduce unwanted movement by changing the position of a lens. Currently, these methods are widely
+ * used in binoculars, video cameras, and telescopes.</p>
+ *
+ * <p>Video-stabilization algorithms usually encompass the following steps:</p>
+ *
+ * <p>
+ *     <b>Source Video Frames</b></>
+ *     -> Motion Estimator
+ *     -> <b>Matrices of Motion</b>
+ *     -> Transformation of Frames
+ *     -> <b>Stabilized Video Frames with some Detects</b>
+ *     -> Video Completion, Debluring,etc.
+ *     -> <b>Stabilized Video</b>.</p>
+ */
+public class VideoStabilization {
+
+    /** source video */
+    private String sourceVideo;
+
+    /** destination of the video*/
+    private String destVideo;
+
+    /** extract callback */
+    private FFmpegFrameGrabber frameGrabber;
+
+    /** size video or image you want to export, the preview fits in it, see {@link #preview()} */
+    private opencv_core.Size mOutImgSize;
+
+    /** Rotate video if you want, by default will be rotate 90 degree*/
+    private int rotateVideo;
+
+    /** videos written by the jobs instead of the resulting video, see {@link #setRenditions(List)} */
+    private List<Rendition> mRenditions = Collections.emptyList();
+
+    private VideoStabConfig mVideoStabConfig;
+
+    private OnStabilizedListener onStabilizedListener;
+
+    /** frame buffers of the running job, see {@link MatPool} */
+    private MatPool mMatPool;
+
+    /** timings of the jobs, disabled by default */
+    private StabilizationMetrics mMetrics = StabilizationMetrics.DISABLED;
+
+    /** cancels the jobs, may be shared with other jobs */
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    /** time given to each job in milliseconds, 0 for no deadline */
+    private long mTimeoutMillis;
+
+    /**
+     * cancels the running job only, by {@link #cancel()}, its deadline or
+     * {@link #mCancellationToken}. Between two jobs it is the token of the next job, so a cancel
+     * made before the job starts is not lost.
+     */
+    private volatile CancellationToken mJobToken = new CancellationToken();
+
+    /** thread running the job, interrupted on cancel */
+    private Thread mJobThread;
+    private TimerTask mDeadline;
+    private Runnable mCancelJob;
+    private Runnable mInterruptJob;
+
+    /** encoders of the resulting videos */
+    private FrameEncoder.Factory mFrameEncoderFactory = new FrameEncoder.Factory() {
+        @Override
+        public FrameEncoder create(VideoStabConfig config) {
+            return new FFmpegFrameEncoder(config);
+        }
+    };
+
+    /** width, height and estimated number of frames of the source video, read once */
+    private int[] mSourceInfo;
+
+    /** frame rate of the source video, read with its size */
+    private double mSourceFrameRate;
+
+    /** part of the source stabilized, in microseconds, see {@link #setRange(long, long, TimeUnit)} */
+    private long mRangeStart;
+    private long mRangeEnd;
+
+    /** motions of the last job, reused by the next job of the same source and settings */
+    private MotionTrack mMotions;
+    private String mMotionsKey;
+
+    public VideoStabilization(String sourcePath, String destPath) {
+        this(sourcePath, destPath, new VideoStabConfig());
+    }
+
+    /**
+     * @param sourcePath path of the source video.
+     * @param destPath directory of the resulting video.
+     * @param config video stab configs of this job.
+     */
+    public VideoStabilization(String sourcePath, String destPath, VideoStabConfig config) {
+        this.sourceVideo = sourcePath;
+        this.destVideo = destPath;
+        mVideoStabConfig = config;
+    }
+
+    /**
+     * processing video will be over 4th step below.
+     * <ur>
+     *     <li>1 - prepare the input video and check it string input</li>
+     *     <li>2 - prepare the motion estimator</li>
+     *     <li>3 - estimate the motion of every frame and smooth the trajectory</li>
+     *     <li>4 - Processing the stabilized frames. The results are showed and saved.</li>
+     * </ur>
+     *
+     * <p>Videos longer than {@link VideoStabConfig#getSegmentFrames()} are split in segments
+     * stabilized in parallel, see {@link #stabilizerSegments(int)}. A part of the video set by
+     * {@link #setRange(long, long, TimeUnit)} is never split.</p>
+     */
+    public void stabilizer() {
+        MyFrameSource source = null;
+        try{
+            if (onStabilizedListener != null) {
+                onStabilizedListener.onStart();
+            }
+            startJob();
+            mJobToken.throwIfCancelled();
+
+            FrameRange range = frameRange();
+            int segmentFrames = mVideoStabConfig.getSegmentFrames();
+            int frameCount = segmentFrames > 0 && range.isWhole() && mRenditions.isEmpty()
+                    ? lengthInFrames() : 0;
+            if (segmentFrames > 0 && frameCount > segmentFrames) {
+                stabilizerSegments(frameCount);
+                return;
+            }
+
+            // 1 prepare the input video and check it string input, motions of a video
+            // analysed before with the same settings are reused, e.g. by a preview.
+            MotionTrack motions = loadMotions();
+            if (motions == null && range.isWhole()) {
+                motions = estimateMotionVectors();
+            }
+
+            FrameCache frameCache = null;
+            if (motions == null && mVideoStabConfig.isSingleDecode()) {
+                long budget = frameCacheBudget(sourceInfo());
+                if (budget > 0) {
+                    frameCache = new FrameCache(budget, mVideoStabConfig.getFrameCacheDiskBytes(),
+                            mVideoStabConfig.getFrameCacheDir(), mMatPool);
+                }
+            }
+            source = new MyFrameSource(sourceVideo, mVideoStabConfig.getPipelineDepth(),
+                    frameCache, mMatPool, mMetrics, range.decodeStart, range.decodeCount);
+
+            if (motions == null) {
+                // 2, 3 - first pass, estimate the motion between each pair of frames
+                motions = estimateMotions(source);
+                storeMotions(motions);
+                source.reset();
+            }
+
+            // then smooth the trajectory
+            mJobToken.throwIfCancelled();
+            FrameWarper warper = new FrameWarper(mVideoStabConfig, smooth(motions),
+                    rotateVideo, outputSize(), mMatPool);
+
+            // 4-Processing the stabilized frames. The results are showed and saved.
+            List<Rendition> outputs = outputs();
+            List<Rendition> encoded = encodedOutputs(outputs);
+            try {
+                processing(warpSource(source, warper, 0, range.skip, range.count(motions)),
+                        source, encoded, 0, 1);
+                passthrough(encoded, outputs, range);
+            } finally {
+                warper.release();
+                deleteEncoded(encoded, outputs);
+            }
+
+        }catch (Exception e) {
+            failed(e);
+        } finally {
+            if (source != null) {
+                source.release();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * <p>Writes a quick, low resolution preview of the stabilized video to
+     * {@code stab_preview} in the destination directory.</p>
+     *
+     * <p>The motions are estimated as for {@link #stabilizer()}, then only one frame out of
+     * {@link VideoStabConfig#getPreviewFrameStep()} is scaled down, warped and encoded. The
+     * preview fits in the size given to {@link #setSizeImage(opencv_core.Size)}, or in
+     * {@link VideoStabConfig#getPreviewMaxSide()} pixels without one. The motions are kept, in
+     * memory and in the motion cache, so the full render that follows does not estimate them
+     * again.</p>
+     */
+    public void preview() {
+        MyFrameSource source = null;
+        try {
+            if (onStabilizedListener != null) {
+                onStabilizedListener.onStart();
+            }
+            startJob();
+            mJobToken.throwIfCancelled();
+
+            FrameRange range = frameRange();
+            MotionTrack motions = loadMotions();
+            if (motions == null && range.isWhole()) {
+                motions = estimateMotionVectors();
+            }
+            source = new MyFrameSource(sourceVideo, mVideoStabConfig.getPipelineDepth(), null,
+                    mMatPool, mMetrics, range.decodeStart, range.decodeCount);
+            if (motions == null) {
+                motions = estimateMotions(source);
+                storeMotions(motions);
+                source.reset();
+            }
+            mJobToken.throwIfCancelled();
+
+            // the stabilization motions in the coordinates of the preview frames
+            int width = motions.getFrameWidth();
+            int height = motions.getFrameHeight();
+            opencv_core.Size size = previewSize(width, height);
+            double[] stabilization = smooth(motions);
+            double scaleX = (double) size.width() / width;
+            double scaleY = (double) size.height() / height;
+            for (int i = 0; i < stabilization.length; i += MotionMath.SIZE) {
+                MotionMath.rescale(stabilization, i, 1 / scaleX, 1 / scaleY);
+            }
+            FrameWarper warper = new FrameWarper(mVideoStabConfig, stabilization, rotateVideo, mMatPool);
+
+            int step = Math.max(1, mVideoStabConfig.getPreviewFrameStep());
+            try {
+                processing(previewSource(source, warper, size, step, range.skip, range.count(motions)),
+                        source, previewPath(), 0, step);
+            } finally {
+                warper.release();
+            }
+        } catch (Exception e) {
+            failed(e);
+        } finally {
+            if (source != null) {
+                source.release();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * <p>Stabilize a long video split in segments of {@link VideoStabConfig#getSegmentFrames()}
+     * frames, up to {@link VideoStabConfig#getSegmentThreads()} segments at the same time.</p>
+     *
+     * <ur>
+     *     <li>first pass - each segment decodes its frames and the first frame of the next
+     *     segment, and estimates the motions between them.</li>
+     *     <li>the motions of the segments are joined and the trajectory of the whole video is
+     *     smoothed at once, so the stabilization motion of the frames around a boundary is the
+     *     one they would have without segments: there is no seam.</li>
+     *     <li>second pass - each segment decodes, warps and encodes its frames to its own
+     *     file, the files are joined by {@link SegmentStitcher}.</li>
+     * </ur>
+     *
+     * @param frameCount estimated number of frames of the video.
+     */
+    private void stabilizerSegments(int frameCount) throws Exception {
+        final int segmentFrames = mVideoStabConfig.getSegmentFrames();
+        final int segments = (frameCount + segmentFrames - 1) / segmentFrames;
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(segments, mVideoStabConfig.getSegmentThreads())));
+        List<String> segmentPaths = new ArrayList<>();
+        FrameWarper segmentWarper = null;
+        try {
+            MotionTrack motions = loadMotions();
+
+            if (motions == null) {
+                // first pass, the last segment reads until the end of the video
+                List<Future<MotionTrack>> parts = new ArrayList<>();
+                for (int s = 0; s < segments; s++) {
+                    final int start = s * segmentFrames;
+                    final int count = s == segments - 1 ? -1 : segmentFrames + 1;
+                    parts.add(pool.submit(new Callable<MotionTrack>() {
+                        @Override
+                        public MotionTrack call() {
+                            return estimateSegment(start, count);
+                        }
+                    }));
+                }
+
+                for (Future<MotionTrack> part : parts) {
+                    MotionTrack segment = part.get();
+                    mJobToken.throwIfCancelled();
+                    if (segment == null) {
+                        break;
+                    }
+                    if (motions == null) {
+                        motions = segment;
+                    } else {
+                        motions.addAll(segment);
+                    }
+                    if (segment.size() < segmentFrames) {
+                        // the video is shorter than its estimated length
+                        break;
+                    }
+                }
+                if (motions == null) {
+                    throw new IllegalStateException("No frame decoded from " + sourceVideo);
+                }
+                storeMotions(motions);
+            }
+
+            // smooth the trajectory of the whole video
+            final FrameWarper warper = new FrameWarper(mVideoStabConfig, smooth(motions),
+                    rotateVideo, outputSize(), mMatPool);
+            segmentWarper = warper;
+            final int totalFrames = motions.frameCount();
+
+            // second pass, each segment to its own file
+            List<Future<Integer>> outputs = new ArrayList<>();
+            for (int start = 0; start < totalFrames; start += segmentFrames) {
+                final int first = start;
+                final int count = Math.min(segmentFrames, totalFrames - start);
+                final String segmentPath = outputPath() + ".part" + segmentPaths.size()
+                        + "." + mVideoStabConfig.getOutputFormat();
+                segmentPaths.add(segmentPath);
+                outputs.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        MyFrameSource source = new MyFrameSource(sourceVideo,
+                                mVideoStabConfig.getPipelineDepth(), null, mMatPool, mMetrics, first, count);
+                        try {
+                            return processing(warpSource(source, warper, first, 0, count),
+                                    source, segmentPath, first, 1);
+                        } finally {
+                            source.release();
+                        }
+                    }
+                }));
+            }
+            int nFrames = 0;
+            for (Future<Integer> output : outputs) {
+                nFrames += output.get();
+            }
+
+            List<Rendition> outputs = outputs();
+            List<Rendition> encoded = encodedOutputs(outputs);
+            try {
+                SegmentStitcher.concat(segmentPaths, encoded.get(0).getPath());
+                passthrough(encoded, outputs, FrameRange.WHOLE);
+            } finally {
+                deleteEncoded(encoded, outputs);
+            }
+            StabilizationLog.d(">>>stab", "Stitched " + segmentPaths.size() + " segments, frames: " + nFrames);
+        } finally {
+            // the segments release their frames before the pool of the job is freed
+            pool.shutdownNow();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (segmentWarper != null) {
+                segmentWarper.release();
+            }
+            for (String segmentPath : segmentPaths) {
+                new File(segmentPath).delete();
+            }
+        }
+    }
+
+    /**
+     * Estimate the motions of a part of the source video.
+     *
+     * @param start index of the first frame.
+     * @param count number of frames, -1 to read until the end of the video.
+     * @return motions between the frames of the part, null when it has no frame.
+     */
+    private MotionTrack estimateSegment(int start, int count) {
+        MyFrameSource source = new MyFrameSource(sourceVideo,
+                mVideoStabConfig.getPipelineDepth(), null, mMatPool, mMetrics, start, count);
+        MotionAnalyzer analyzer = new MotionAnalyzer(mVideoStabConfig, mMatPool, mMetrics);
+        MotionTrack motions = null;
+        double[] motion = new double[MotionMath.SIZE];
+        try {
+            Mat frame;
+            while (!(frame = source.nextFrame()).empty()) {
+                mJobToken.throwIfCancelled();
+                if (motions == null) {
+                    motions = new MotionTrack(frame.cols(), frame.rows());
+                }
+                long started = mMetrics.start();
+                boolean hasMotion = analyzer.next(frame, motion);
+                mMetrics.stop(StabilizationMetrics.Stage.ESTIMATE, started);
+                if (hasMotion) {
+                    motions.add(motion);
+                }
+                source.releaseFrame(frame);
+            }
+        } finally {
+            analyzer.release();
+            source.release();
+        }
+        return motions;
+    }
+
+    /**
+     * Stabilize the source video in a single pass, see {@link #stabilizerOnline(IFrameSource)}.
+     */
+    public void stabilizerOnline() {
+        startJob();
+        FrameRange range;
+        try {
+            range = frameRange();
+        } catch (FrameGrabber.Exception e) {
+            // same callbacks as a job failing once started
+            if (onStabilizedListener != null) {
+                onStabilizedListener.onStart();
+            }
+            failed(e);
+            finish();
+            return;
+        }
+        stabilizerOnline(new MyFrameSource(sourceVideo, mVideoStabConfig.getPipelineDepth(), null,
+                mMatPool, mMetrics, range.decodeStart, range.decodeCount), range);
+    }
+
+    /**
+     * <p>Stabilize a stream of frames in a single pass, with a look-ahead of
+     * {@link VideoStabConfig#getStabRadius()} frames: frame N is warped and written as soon as
+     * frame N + radius has been read, see {@link OnlineStabilizer}. The memory used does not
+     * depend on the length of the stream, so the source can be live or endless. The look-ahead
+     * is shrunk when its frames do not fit in {@link VideoStabConfig#getFrameMemoryCap()}.</p>
+     *
+     * <p>The stabilized frames go through the same encode stage and the same
+     * {@link OnStabilizedListener} as {@link #stabilizer()}.</p>
+     *
+     * @param frameSource source of the frames, read until it returns an empty frame.
+     */
+    public void stabilizerOnline(IFrameSource frameSource) {
+        stabilizerOnline(frameSource, null);
+    }
+
+    /**
+     * @param frameSource source of the frames, read until it returns an empty frame.
+     * @param range frames of the source video read and written, null for the frames of another
+     *              source: they are all written, without the audio of the source video.
+     */
+    private void stabilizerOnline(final IFrameSource frameSource, final FrameRange range) {
+        // the stabilized frames before the range are only the look-behind of the next frames
+        final int skip = range != null ? range.skip : 0;
+        final int count = range != null ? range.count : -1;
+        if (mMatPool == null) {
+            startJob();
+        }
+        final OnlineStabilizer online = new OnlineStabilizer(mVideoStabConfig, rotateVideo,
+                outputSize(), mMatPool, mMetrics);
+        final List<Rendition> outputs = outputs();
+        final List<Rendition> encoded = range != null ? encodedOutputs(outputs) : outputs;
+        // frames of MyFrameSource are decoded for this job, other sources may reuse theirs
+        final MyFrameSource decoder = frameSource instanceof MyFrameSource ? (MyFrameSource) frameSource : null;
+        try {
+            if (onStabilizedListener != null) {
+                onStabilizedListener.onStart();
+            }
+            mJobToken.throwIfCancelled();
+
+            // estimate + warp: stabilize each frame once its look-ahead has been read
+            processing(new FramePipeline.Source() {
+                private boolean ended = false;
+                private boolean done = false;
+                private int stabilizedCount = 0;
+
+                @Override
+                public Mat next() {
+                    while (!done) {
+                        Mat stabilized = nextStabilized();
+                        if (stabilized.empty()) {
+                            return stabilized;
+                        }
+                        int index = stabilizedCount++;
+                        if (index < skip) {
+                            mMatPool.release(stabilized);
+                            continue;
+                        }
+                        if (count >= 0 && index >= skip + count) {
+                            // the frames after the range are only the look-ahead
+                            mMatPool.release(stabilized);
+                            done = true;
+                            break;
+                        }
+                        return stabilized;
+                    }
+                    return new Mat();
+                }
+
+                private Mat nextStabilized() {
+                    while (!ended) {
+                        mJobToken.throwIfCancelled();
+                        Mat frame = frameSource.nextFrame();
+                        if (frame == null || frame.empty()) {
+                            ended = true;
+                            break;
+                        }
+                        Mat stabilized = online.push(frame);
+                        if (decoder != null) {
+                            decoder.releaseFrame(frame);
+                        }
+                        if (stabilized != null) {
+                            return stabilized;
+                        }
+                    }
+                    Mat stabilized = online.flush();
+                    return stabilized != null ? stabilized : new Mat();
+                }
+            }, decoder, encoded, 0, 1);
+            if (range != null) {
+                passthrough(encoded, outputs, range);
+            }
+
+        } catch (Exception e) {
+            failed(e);
+        } finally {
+            online.release();
+            if (decoder != null) {
+                decoder.release();
+            }
+            deleteEncoded(encoded, outputs);
+            finish();
+        }
+    }
+
+    /**
+     * Estimate the motion between each pair of frames of the source.
+     *
+     * @param frameSource source frames, read until the end of the stream.
+     * @return motions of the video.
+     */
+    private MotionTrack estimateMotions(MyFrameSource frameSource) throws Exception {
+        // 2 prepare the motion estimators, they run on a gray, down scaled proxy of the frames
+        ParallelMotionAnalyzer analyzer = new ParallelMotionAnalyzer(mVideoStabConfig, mMatPool, mMetrics);
+
+        // 3 estimate the motion between each pair of frames, the pairs in parallel
+        MotionTrack motions = analyzer.analyze(frameSource);
+
+        // a cancelled source ends early
+        mJobToken.throwIfCancelled();
+        if (motions == null) {
+            throw new IllegalStateException("No frame decoded from " + sourceVideo);
+        }
+        return motions;
+    }
+
+    /**
+     * First pass from the motion vectors of the decoder, when
+     * {@link VideoStabConfig#isMotionVectors()}, see {@link MotionVectorAnalyzer}.
+     *
+     * @return motions of the source, null when they are not estimated from the motion vectors.
+     */
+    private MotionTrack estimateMotionVectors() throws IOException {
+        if (!mVideoStabConfig.isMotionVectors()) {
+            return null;
+        }
+        MotionVectorAnalyzer analyzer = new MotionVectorAnalyzer(mVideoStabConfig, mMatPool, mMetrics);
+        MotionTrack motions;
+        try {
+            motions = analyzer.analyze(sourceVideo, mJobToken);
+        } finally {
+            analyzer.release();
+        }
+        if (motions != null) {
+            storeMotions(motions);
+        }
+        return motions;
+    }
+
+    /**
+     * @return stabilization motion of each frame, see {@link MotionSmoother}.
+     */
+    private double[] smooth(MotionTrack motions) {
+        long started = mMetrics.start();
+        double[] stabilization = new MotionSmoother(mVideoStabConfig.getStabRadius(),
+                mVideoStabConfig.getSmoothingFilter()).stabilize(motions);
+        mMetrics.stop(StabilizationMetrics.Stage.SMOOTH, started);
+        return stabilization;
+    }
+
+    /**
+     * @return motions of the source estimated before with the same settings, by the last job of
+     * this object or in the motion cache, null when there are none.
+     */
+    private MotionTrack loadMotions() throws IOException, FrameGrabber.Exception {
+        File cacheDir = mVideoStabConfig.getMotionCacheDir();
+        if (mMotions == null && cacheDir == null) {
+            return null;
+        }
+        String key = motionKey();
+        if (mMotions != null && key.equals(mMotionsKey)) {
+            return mMotions;
+        }
+        return cacheDir != null ? new MotionCache(cacheDir).load(key) : null;
+    }
+
+    /**
+     * Keeps the estimated motions for the next job, and in the motion cache when there is one.
+     */
+    private void storeMotions(MotionTrack motions) {
+        try {
+            String key = motionKey();
+            mMotions = motions;
+            mMotionsKey = key;
+            if (mVideoStabConfig.getMotionCacheDir() != null) {
+                new MotionCache(mVideoStabConfig.getMotionCacheDir()).store(key, motions);
+            }
+        } catch (IOException | FrameGrabber.Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return key of the motions of the frames decoded by the jobs, see {@link MotionCache}.
+     */
+    private String motionKey() throws IOException, FrameGrabber.Exception {
+        String key = MotionCache.key(sourceVideo, mVideoStabConfig);
+        FrameRange range = frameRange();
+        return range.isWhole() ? key : key + "_" + range.decodeStart + "_" + range.decodeCount;
+    }
+
+    /**
+     * Warp stage: stabilize the frames coming from the decode stage of MyFrameSource.
+     *
+     * @param frameSource source of the frames.
+     * @param warper stabilize each frame.
+     * @param firstIndex index in the motions of the first frame of the source.
+     * @param skip frames of the source dropped before the first frame to stabilize.
+     * @param count number of frames to stabilize.
+     */
+    private FramePipeline.Source warpSource(final MyFrameSource frameSource, final FrameWarper warper,
+                                            final int firstIndex, final int skip, final int count) {
+        return new FramePipeline.Source() {
+            private int index = -skip;
+
+            @Override
+            public Mat next() {
+                if (index >= count) {
+                    return new Mat();
+                }
+                mJobToken.throwIfCancelled();
+                Mat frame = frameSource.nextFrame();
+                while (index < 0 && !frame.empty()) {
+                    // context of the smoothing before the range, decoded but not written
+                    frameSource.releaseFrame(frame);
+                    index++;
+                    frame = frameSource.nextFrame();
+                }
+                if (frame.empty()) {
+                    return frame;
+                }
+                long started = mMetrics.start();
+                Mat stabilized = warper.warp(firstIndex + skip + index++, frame);
+                mMetrics.stop(StabilizationMetrics.Stage.WARP, started);
+                frameSource.releaseFrame(frame);
+                return stabilized;
+            }
+        };
+    }
+
+    /**
+     * Warp stage of a preview: scales down and stabilizes one frame out of {@code step}.
+     *
+     * @param frameSource source of the frames, from the first frame of the motions.
+     * @param warper stabilize each frame, its motions are in the coordinates of the preview.
+     * @param size size of the preview frames.
+     * @param step one frame out of step is kept.
+     * @param skip frames of the source dropped before the first frame of the preview.
+     * @param count number of frames of the previewed part of the video.
+     */
+    private FramePipeline.Source previewSource(final MyFrameSource frameSource, final FrameWarper warper,
+                                               final opencv_core.Size size, final int step,
+                                               final int skip, final int count) {
+        return new FramePipeline.Source() {
+            private int index = 0;
+
+            @Override
+            public Mat next() {
+                while (index < skip + count) {
+                    mJobToken.throwIfCancelled();
+                    Mat frame = frameSource.nextFrame();
+                    if (frame.empty()) {
+                        return frame;
+                    }
+                    int frameIndex = index++;
+                    if (frameIndex < skip || (frameIndex - skip) % step != 0) {
+                        frameSource.releaseFrame(frame);
+                        continue;
+                    }
+
+                    long started = mMetrics.start();
+                    Mat scaled = mMatPool.acquire(size.height(), size.width(), frame.type());
+                    resize(frame, scaled, size, 0, 0, INTER_AREA);
+                    frameSource.releaseFrame(frame);
+                    Mat stabilized = warper.warp(frameIndex, scaled);
+                    mMatPool.release(scaled);
+                    mMetrics.stop(StabilizationMetrics.Stage.WARP, started);
+                    return stabilized;
+                }
+                return new Mat();
+            }
+        };
+    }
+
+    /**
+     * @param width width of the source frames.
+     * @param height height of the source frames.
+     * @return size of the preview frames before their rotation, the source scaled to fit the
+     * size of the resulting video, never scaled up.
+     */
+    private opencv_core.Size previewSize(int width, int height) {
+        double maxWidth;
+        double maxHeight;
+        if (mOutImgSize != null && mOutImgSize.width() > 0 && mOutImgSize.height() > 0) {
+            // the size of the resulting video is the one after the rotation
+            boolean swap = rotateVideo % 180 != 0;
+            maxWidth = swap ? mOutImgSize.height() : mOutImgSize.width();
+            maxHeight = swap ? mOutImgSize.width() : mOutImgSize.height();
+        } else {
+            maxWidth = maxHeight = mVideoStabConfig.getPreviewMaxSide();
+        }
+        double scale = Math.min(1, Math.min(maxWidth / width, maxHeight / height));
+        // even sizes for the YUV 4:2:0 encoders
+        int previewWidth = Math.max(2, (int) Math.round(width * scale) & ~1);
+        int previewHeight = Math.max(2, (int) Math.round(height * scale) & ~1);
+        return new opencv_core.Size(previewWidth, previewHeight);
+    }
+
+    /**
+     * <p>This method is created to process and stabilize each frame. This function needs to introduce a
+     * path to save the resulting video ( string outputPath = ".//stabilizedVideo.mp4" ), the
+     * playback speed is the one of the source video. </p>
+     *
+     * <p>The work is split in stages joined by bounded queues, see {@link FramePipeline}:
+     * the stabilized frames come from their own stage, already rotated by the warp, and the
+     * calling thread encodes them with a {@link FrameEncoder}. The stages run until there are no more frames
+     * ( stabilizedFrames-> next().empty() ).</p>
+     *
+     * <p>Each stage gives the frame it consumed back to the {@link MatPool}, so once the
+     * queues are full no frame buffer is allocated any more.</p>
+     *
+     * @param stabilizedFrames stage giving the stabilized frames.
+     * @param videoSource source of the video, released by the caller, may be null. Its frame rate
+     *                    is the one of the resulting video, {@link VideoStabConfig#OUT_FPS}
+     *                    without a source.
+     * @param videoPath path of the resulting video.
+     * @param firstIndex index in the video of the first frame, for the listener.
+     * @param frameStep one frame of the source out of frameStep is written, it divides the
+     *                  frame rate of the resulting video.
+     * @return number of frames written.
+     * @throws CancellationException when the job has been cancelled.
+     */
+    private int processing(FramePipeline.Source stabilizedFrames, MyFrameSource videoSource,
+                           String videoPath, int firstIndex, int frameStep) throws Exception {
+        return processing(stabilizedFrames, videoSource,
+                Collections.singletonList(new Rendition(videoPath, 0, 0)), firstIndex, frameStep);
+    }
+
+    /**
+     * Same as {@link #processing(FramePipeline.Source, MyFrameSource, String, int, int)} for
+     * several renditions: the frames of the first one are encoded on the calling thread, the
+     * frames of several ones go to a {@link RenditionFanOut}.
+     *
+     * @param outputs videos written, the first one at the size of the stabilized frames when
+     *                there is only one.
+     */
+    private int processing(FramePipeline.Source stabilizedFrames, MyFrameSource videoSource,
+                           List<Rendition> outputs, final int firstIndex, int frameStep) throws Exception {
+        if (stabilizedFrames == null || outputs.isEmpty())
+            throw new IllegalArgumentException("Stabilized frames and Out Path can't be null");
+        for (Rendition output : outputs) {
+            if (output.getPath() == null || output.getPath().isEmpty())
+                throw new IllegalArgumentException("Stabilized frames and Out Path can't be null");
+        }
+
+        final double frameRate = (videoSource != null && videoSource.getFrameRate() > 0
+                ? videoSource.getFrameRate() : VideoStabConfig.OUT_FPS) / Math.max(1, frameStep);
+        final List<FrameEncoder> encoders = new ArrayList<>();
+        for (Rendition output : outputs) {
+            encoders.add(encoder(output));
+        }
+        final RenditionFanOut fanOut = outputs.size() > 1 ? new RenditionFanOut(outputs, encoders,
+                frameRate, mVideoStabConfig.getPipelineDepth(), mMatPool, mMetrics) : null;
+        int nFrames = 0;
+        final FrameEncoder encoder = encoders.get(0);
+        final String videoPath = outputs.get(0).getPath();
+        try {
+            StabilizationLog.d(">>>stab", "Started");
+
+            FramePipeline pipeline = new FramePipeline(mVideoStabConfig.getPipelineDepth(), mMatPool);
+            pipeline.metrics(mMetrics);
+            pipeline.source(">>>stab-warp", stabilizedFrames);
+            if (fanOut != null) {
+                fanOut.start();
+            }
+
+            // encode on this thread
+            nFrames = pipeline.run(new FramePipeline.Sink() {
+                @Override
+                public void accept(int index, Mat frame) throws Exception {
+                    mJobToken.throwIfCancelled();
+                    if (fanOut != null) {
+                        // the writers may release the frame as soon as it is handed over
+                        onProcess(firstIndex + index + 1, frame);
+                        mMetrics.frameWritten();
+                        fanOut.accept(index, frame);
+                        return;
+                    }
+                    if (index == 0) {
+                        encoder.start(videoPath, frame.cols(), frame.rows(), frameRate);
+                    }
+
+                    // save to disk
+                    long started = mMetrics.start();
+                    encoder.encode(frame);
+                    mMetrics.stop(StabilizationMetrics.Stage.ENCODE, started);
+                    mMetrics.frameWritten();
+
+                    onProcess(firstIndex + index + 1, frame);
+                    // release
+                    mMatPool.release(frame);
+                }
+            });
+            if (fanOut != null) {
+                fanOut.finish();
+            }
+
+            StabilizationLog.d(">>>stab", "Processed Frames: " + nFrames);
+            StabilizationLog.d(">>>stab", "Finished");
+        } finally {
+            if (fanOut != null) {
+                fanOut.release();
+            }
+            for (FrameEncoder stopped : encoders) {
+                try {
+                    stopped.stop();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return nFrames;
+    }
+
+    /**
+     * @param frameIndex index of the frame in the video, from 1.
+     * @param frame stabilized frame, only borrowed for the call.
+     */
+    private void onProcess(int frameIndex, Mat frame) {
+        if (onStabilizedListener != null) {
+            // segments of a long video call the listener from several threads
+            synchronized (onStabilizedListener) {
+                onStabilizedListener.onProcess(frameIndex, frame);
+            }
+        }
+    }
+
+    /**
+     * @return new encoder of the rendition, not started.
+     */
+    private FrameEncoder encoder(Rendition rendition) {
+        FrameEncoder encoder = mFrameEncoderFactory.create(mVideoStabConfig);
+        if (rendition.getCodec() != Rendition.JOB_CODEC && encoder instanceof FFmpegFrameEncoder) {
+            ((FFmpegFrameEncoder) encoder).setVideoCodec(rendition.getCodec());
+        }
+        return encoder;
+    }
+
+    /**
+     * @return path of the resulting video.
+     */
+    private String outputPath() {
+        return destVideo + "/stab_video." + mVideoStabConfig.getOutputFormat();
+    }
+
+    /**
+     * @return path of the preview video.
+     */
+    private String previewPath() {
+        return destVideo + "/stab_preview." + mVideoStabConfig.getOutputFormat();
+    }
+
+    /**
+     * @return videos written by the jobs, the renditions or the resulting video.
+     */
+    private List<Rendition> outputs() {
+        if (!mRenditions.isEmpty()) {
+            return mRenditions;
+        }
+        return Collections.singletonList(new Rendition(outputPath(), 0, 0));
+    }
+
+    /**
+     * @return size of the stabilized frames, the largest rendition or the size of
+     * {@link #setSizeImage(opencv_core.Size)}, see {@link FrameWarper}.
+     */
+    private opencv_core.Size outputSize() {
+        if (mRenditions.isEmpty()) {
+            return mOutImgSize;
+        }
+        int width = 0;
+        int height = 0;
+        for (Rendition rendition : mRenditions) {
+            if (!rendition.isScaled()) {
+                // a rendition at the size of the trimmed frames
+                return null;
+            }
+            width = Math.max(width, rendition.getWidth());
+            height = Math.max(height, rendition.getHeight());
+        }
+        return new opencv_core.Size(width, height);
+    }
+
+    /**
+     * @param outputs videos written by the job.
+     * @return the videos the frames are encoded to, next to the outputs when the streams of the
+     * source are added to them afterwards, see {@link #passthrough(List, List, FrameRange)}.
+     */
+    private List<Rendition> encodedOutputs(List<Rendition> outputs) {
+        if (!mVideoStabConfig.isStreamPassthrough()) {
+            return outputs;
+        }
+        List<Rendition> encoded = new ArrayList<>();
+        for (Rendition output : outputs) {
+            encoded.add(output.withPath(output.getPath() + ".video." + mVideoStabConfig.getOutputFormat()));
+        }
+        return encoded;
+    }
+
+    /**
+     * Writes the videos of the job from their encoded frames, the audio and the metadata of the
+     * source video, see {@link StreamPassthrough}.
+     *
+     * @param encoded videos of the stabilized frames, from {@link #encodedOutputs(List)}.
+     * @param outputs videos written by the job.
+     * @param range frames of the source video written to the encoded videos.
+     */
+    private void passthrough(List<Rendition> encoded, List<Rendition> outputs, FrameRange range)
+            throws IOException {
+        for (int i = 0; i < outputs.size(); i++) {
+            passthrough(encoded.get(i).getPath(), outputs.get(i).getPath(), range);
+        }
+    }
+
+    private void passthrough(String encodedPath, String output, FrameRange range) throws IOException {
+        if (encodedPath.equals(output) || !new File(encodedPath).exists()) {
+            // no frame encoded
+            return;
+        }
+        long start = 0;
+        long end = -1;
+        if (!range.isWhole()) {
+            double frameRate = mSourceFrameRate > 0 ? mSourceFrameRate : VideoStabConfig.OUT_FPS;
+            int first = range.decodeStart + range.skip;
+            start = Math.round(first * 1000000d / frameRate);
+            if (range.count >= 0) {
+                end = Math.round((first + range.count) * 1000000d / frameRate);
+            }
+        }
+        StreamPassthrough.mux(sourceVideo, encodedPath, output, mVideoStabConfig.getOutputFormat(),
+                start, end, rotateVideo);
+    }
+
+    private static void deleteEncoded(List<Rendition> encoded, List<Rendition> outputs) {
+        for (int i = 0; i < outputs.size(); i++) {
+            String encodedPath = encoded.get(i).getPath();
+            if (!encodedPath.equals(outputs.get(i).getPath())) {
+                new File(encodedPath).delete();
+            }
+        }
+    }
+
+    /**
+     * @return number of frames of the source video, estimated from its duration.
+     */
+    private int lengthInFrames() throws FrameGrabber.Exception {
+        return sourceInfo()[2];
+    }
+
+    /**
+     * @return width, height and estimated number of frames of the source video.
+     */
+    private int[] sourceInfo() throws FrameGrabber.Exception {
+        if (mSourceInfo != null) {
+            return mSourceInfo;
+        }
+        if (frameGrabber != null) {
+            mSourceInfo = new int[] {frameGrabber.getImageWidth(), frameGrabber.getImageHeight(),
+                    frameGrabber.getLengthInFrames()};
+            mSourceFrameRate = frameGrabber.getFrameRate();
+            return mSourceInfo;
+        }
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(sourceVideo);
+        try {
+            grabber.start();
+            mSourceInfo = new int[] {grabber.getImageWidth(), grabber.getImageHeight(),
+                    grabber.getLengthInFrames()};
+            mSourceFrameRate = grabber.getFrameRate();
+            return mSourceInfo;
+        } finally {
+            grabber.release();
+        }
+    }
+
+    /**
+     * Frames of the source read and written by a job, in frames of the source video.
+     */
+    static final class FrameRange {
+        /** the whole video */
+        static final FrameRange WHOLE = new FrameRange(0, -1, 0, -1);
+
+        /** first frame decoded */
+        final int decodeStart;
+        /** frames decoded, -1 until the end of the video */
+        final int decodeCount;
+        /** frames decoded before the first frame written, the look-behind of the smoothing */
+        final int skip;
+        /** frames written, -1 until the end of the video */
+        final int count;
+
+        FrameRange(int decodeStart, int decodeCount, int skip, int count) {
+            this.decodeStart = decodeStart;
+            this.decodeCount = decodeCount;
+            this.skip = skip;
+            this.count = count;
+        }
+
+        /**
+         * @param startMicros first time written, 0 from the start of the video.
+         * @param endMicros time the output ends at, 0 until the end of the video.
+         * @param frameRate frames per second of the source.
+         * @param radius frames of the smoothing before and after each frame.
+         * @return frames read and written to stabilize this part of the video.
+         */
+        static FrameRange of(long startMicros, long endMicros, double frameRate, int radius) {
+            if (startMicros <= 0 && endMicros <= 0) {
+                return WHOLE;
+            }
+            int first = (int) Math.floor(Math.max(0, startMicros) * frameRate / 1000000d);
+            int decodeStart = Math.max(0, first - radius);
+            int skip = first - decodeStart;
+            if (endMicros <= 0) {
+                return new FrameRange(decodeStart, -1, skip, -1);
+            }
+            int count = Math.max(0, (int) Math.ceil(endMicros * frameRate / 1000000d) - first);
+            return new FrameRange(decodeStart, skip + count + radius, skip, count);
+        }
+
+        boolean isWhole() {
+            return decodeStart == 0 && decodeCount < 0;
+        }
+
+        /**
+         * @param motions motions of the decoded frames.
+         * @return frames written.
+         */
+        int count(MotionTrack motions) {
+            int decoded = Math.max(0, motions.frameCount() - skip);
+            return count >= 0 ? Math.min(count, decoded) : decoded;
+        }
+    }
+
+    /**
+     * The part set by {@link #setRange(long, long, TimeUnit)} and the frames around it needed by
+     * the smoothing: {@link VideoStabConfig#getStabRadius()} frames before and after.
+     *
+     * @return frames read and written by the jobs.
+     */
+    private FrameRange frameRange() throws FrameGrabber.Exception {
+        if (mRangeStart <= 0 && mRangeEnd <= 0) {
+            return FrameRange.WHOLE;
+        }
+        sourceInfo();
+        double frameRate = mSourceFrameRate > 0 ? mSourceFrameRate : VideoStabConfig.OUT_FPS;
+        int radius = Math.max(0, mVideoStabConfig.getStabRadius());
+        return FrameRange.of(mRangeStart, mRangeEnd, frameRate, radius);
+    }
+
+    /**
+     * @return segments of the source video stabilized at the same time, 1 when it is not split.
+     */
+    private int parallelSegments() throws FrameGrabber.Exception {
+        int segmentFrames = mVideoStabConfig.getSegmentFrames();
+        int frameCount = segmentFrames > 0 && frameRange().isWhole() && mRenditions.isEmpty()
+                ? lengthInFrames() : 0;
+        if (segmentFrames <= 0 || frameCount <= segmentFrames) {
+            return 1;
+        }
+        int segments = (frameCount + segmentFrames - 1) / segmentFrames;
+        return Math.max(1, Math.min(segments, mVideoStabConfig.getSegmentThreads()));
+    }
+
+    /**
+     * Cores kept busy by {@link #stabilizer()}: the motion estimation workers, or one per
+     * segment stabilized at the same time for a long video.
+     */
+    int estimateCores() throws FrameGrabber.Exception {
+        int segments = parallelSegments();
+        if (segments > 1) {
+            return segments;
+        }
+        return Math.max(1, mVideoStabConfig.getAnalysisThreads());
+    }
+
+    /**
+     * Upper bound of the native memory used by {@link #stabilizer()}, from the resolution of
+     * the source and the settings of the job.
+     *
+     * <ur>
+     *     <li>frames queued in the decode and pipeline stages, and the free buffers of the
+     *     {@link MatPool}.</li>
+     *     <li>the look-ahead of the smoothing, {@link VideoStabConfig#getStabRadius()} frames
+     *     bounded by {@link VideoStabConfig#getFrameMemoryCap()}.</li>
+     *     <li>the proxies waiting for the motion estimation.</li>
+     *     <li>the {@link FrameCache} of a single decode job.</li>
+     *     <li>the frames waiting for the writers of the renditions, see {@link RenditionFanOut}.</li>
+     * </ur>
+     *
+     * @return bytes of native memory.
+     */
+    long estimateNativeMemory() throws FrameGrabber.Exception {
+        int[] info = sourceInfo();
+        long frameBytes = (long) info[0] * info[1] * 3;
+        float proxyScale = mVideoStabConfig.getProxyScale();
+        long proxyBytes = (long) (info[0] * proxyScale) * (long) (info[1] * proxyScale);
+        int depth = Math.max(1, mVideoStabConfig.getPipelineDepth());
+
+        long frames = 3L * depth + 4L * depth;
+        if (mRenditions.size() > 1) {
+            frames += (long) depth * mRenditions.size();
+        }
+        long window = FrameRing.capacity(frameBytes, mVideoStabConfig.getFrameMemoryCap(),
+                mVideoStabConfig.getStabRadius() + 1) * frameBytes;
+        long proxies = ParallelMotionAnalyzer.queuedProxies(mVideoStabConfig);
+        long bytes = frames * frameBytes + window + proxies * proxyBytes;
+
+        int segments = parallelSegments();
+        if (segments > 1) {
+            // segments decode twice, without a frame cache
+            return segments * bytes;
+        }
+        if (mVideoStabConfig.isSingleDecode()) {
+            bytes += Math.min(frameCacheBudget(info), (long) Math.max(0, info[2]) * frameBytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of the frame cache kept in memory, {@link VideoStabConfig#getFrameCacheBytes()}
+     * bounded by {@link VideoStabConfig#getFrameMemoryCap()}.
+     *
+     * @param info width, height and length of the source, see {@link #sourceInfo()}.
+     * @return bytes of the frame cache, 0 when not even one frame fits under the cap: the second
+     * pass then decodes the video again instead of replaying the cached frames.
+     */
+    private long frameCacheBudget(int[] info) {
+        long budget = mVideoStabConfig.getFrameCacheBytes();
+        long cap = mVideoStabConfig.getFrameMemoryCap();
+        if (cap <= 0) {
+            return budget;
+        }
+        long frameBytes = (long) info[0] * info[1] * 3;
+        return cap < frameBytes ? 0 : Math.min(budget, cap);
+    }
+
+    /**
+     * @return pool of a job, it keeps the buffers of the frames queued between the stages.
+     */
+    private MatPool newMatPool() {
+        return new MatPool(4 * Math.max(1, mVideoStabConfig.getPipelineDepth()));
+    }
+
+    /**
+     * Called when a job starts, creates its frame buffers, resets the metrics and arms the
+     * cancellation of the job.
+     */
+    private void startJob() {
+        mMatPool = newMatPool();
+        mMetrics.jobStarted(mMatPool);
+
+        // the token of the next job, it may already be cancelled
+        final CancellationToken jobToken = mJobToken;
+        synchronized (jobToken) {
+            mJobThread = Thread.currentThread();
+        }
+        mInterruptJob = new Runnable() {
+            @Override
+            public void run() {
+                // wakes the stages blocked on a queue, they release their frames
+                synchronized (jobToken) {
+                    if (mJobThread != null) {
+                        mJobThread.interrupt();
+                    }
+                }
+            }
+        };
+        jobToken.onCancel(mInterruptJob);
+        mCancelJob = new Runnable() {
+            @Override
+            public void run() {
+                jobToken.cancel();
+            }
+        };
+        mCancellationToken.onCancel(mCancelJob);
+        if (mTimeoutMillis > 0) {
+            mDeadline = jobToken.cancelAfter(mTimeoutMillis);
+        }
+    }
+
+    /**
+     * Reports a job that did not complete to the listener.
+     */
+    private void failed(Exception e) {
+        Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+        boolean cancelled = mJobToken.isCancelled()
+                || cause instanceof CancellationException
+                || cause instanceof InterruptedException;
+        if (cancelled) {
+            StabilizationLog.d(">>>stab", "Cancelled");
+        } else {
+            cause.printStackTrace();
+        }
+        if (onStabilizedListener != null) {
+            if (cancelled) {
+                onStabilizedListener.onCancelled();
+            } else {
+                onStabilizedListener.onFailed(cause instanceof Exception ? (Exception) cause : e);
+            }
+        }
+    }
+
+    /**
+     * Called when the job ends, successful or not.
+     */
+    private void finish() {
+        CancellationToken jobToken = mJobToken;
+        synchronized (jobToken) {
+            mJobThread = null;
+        }
+        if (mDeadline != null) {
+            mDeadline.cancel();
+            mDeadline = null;
+        }
+        mCancellationToken.removeOnCancel(mCancelJob);
+        jobToken.removeOnCancel(mInterruptJob);
+        if (jobToken.isCancelled()) {
+            // the interrupt was meant for the job only
+            Thread.interrupted();
+        }
+        mJobToken = new CancellationToken();
+
+        try {
+            if (frameGrabber != null) {
+                frameGrabber.release();
+            }
+        } catch (FrameGrabber.Exception e) {
+            e.printStackTrace();
+        }
+        mMetrics.jobFinished();
+        if (mMetrics.isEnabled()) {
+            StabilizationLog.d(">>>stab", mMetrics.summary());
+        }
+        if (mMatPool != null) {
+            mMatPool.clear();
+            mMatPool = null;
+        }
+        if (onStabilizedListener != null) {
+            onStabilizedListener.onFinished();
+        }
+    }
+
+    /**
+     * Source video frames for the stabilizer.
+     *
+     * <p>Decoding runs on its own thread ( the decode stage ) which keeps up to
+     * {@link VideoStabConfig#getPipelineDepth()} frames ready, so the stabilizer does not wait
+     * on the decoder for every frame.</p>
+     *
+     * <p>With a {@link FrameCache} the video is decoded only once: the first pass of the
+     * stabilizer records the decoded frames and {@link #reset()} replays them from the cache
+     * instead of restarting the decoder.</p>
+     */
+    static class MyFrameSource extends IFrameSource {
+        private final FrameGrabber mFrameGrabber;
+        private final OpenCVFrameConverter.ToMat mConverter;
+
+        /** decoded frames of the first pass, null to decode the video for every pass */
+        private final FrameCache mCache;
+
+        /** buffers of the decoded frames */
+        private final MatPool mMatPool;
+
+        /** index of the first frame read */
+        private final int mStartFrame;
+
+        /** number of frames read, -1 to read until the end of the video */
+        private final int mFrameCount;
+
+        /** timings of the decode stage */
+        private final StabilizationMetrics mMetrics;
+
+        /** decoded frames waiting for the stabilizer, an empty Mat marks the end of the stream */
+        private final BlockingQueue<Mat> mDecoded;
+        private Thread mDecoder;
+
+        /** error of the decode stage, reported once the frames before it have been read */
+        private volatile Exception mFailure;
+
+        MyFrameSource(String sourceVideo, int depth, FrameCache cache, MatPool pool,
+                      StabilizationMetrics metrics) {
+            this(sourceVideo, depth, cache, pool, metrics, 0, -1);
+        }
+
+        /**
+         * @param sourceVideo path of the video.
+         * @param depth number of frames decoded ahead.
+         * @param cache decoded frames of the first pass, may be null.
+         * @param pool buffers of the decoded frames.
+         * @param metrics timings of the decode stage.
+         * @param startFrame index of the first frame to read.
+         * @param frameCount number of frames to read, -1 to read until the end of the video.
+         */
+        MyFrameSource(String sourceVideo, int depth, FrameCache cache, MatPool pool,
+                      StabilizationMetrics metrics, int startFrame, int frameCount) {
+            mFrameGrabber = new FFmpegFrameGrabber(sourceVideo);
+            mConverter = new OpenCVFrameConverter.ToMat();
+            mCache = cache;
+            mMatPool = pool;
+            mMetrics = metrics;
+            mStartFrame = startFrame;
+            mFrameCount = frameCount;
+            mDecoded = new ArrayBlockingQueue<>(Math.max(1, depth));
+            mMetrics.watchQueue(">>>stab-decode", mDecoded);
+            start();
+        }
+
+        /**
+         * @return next frame, an empty frame at the end of the stream or when the thread is
+         * interrupted.
+         * @throws IllegalStateException when the decoding failed.
+         */
+        @Override
+        public Mat nextFrame() {
+            try {
+                Mat frame = mDecoded.take();
+                if (frame.empty()) {
+                    // keep reporting the end of the stream
+                    mDecoded.offer(frame);
+                    if (mFailure != null) {
+                        throw new IllegalStateException("Decoding failed", mFailure);
+                    }
+                }
+                return frame;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new Mat();
+        }
+
+        @Override
+        public void reset() {
+            try {
+                StabilizationLog.d(">>>IFrameSource", "reset");
+                stopDecoder();
+                mFailure = null;
+                if (mCache != null && mCache.isComplete()) {
+                    startDecoder(new Runnable() {
+                        @Override
+                        public void run() {
+                            replay();
+                        }
+                    });
+                } else {
+                    if (mCache != null) {
+                        mCache.clear();
+                    }
+                    mFrameGrabber.restart();
+                    seek();
+                    startDecoder();
+                }
+            } catch (FrameGrabber.Exception e) {
+                // no decoder runs, nextFrame() ends the stream and throws the error
+                endOfStream(e);
+            }
+        }
+
+        /**
+         * @return frame rate of the source video, 0 when it is unknown.
+         */
+        public double getFrameRate() {
+            return mFrameGrabber.getFrameRate();
+        }
+
+        public void start() {
+            try {
+                mFrameGrabber.start();
+                seek();
+                startDecoder();
+            } catch (FrameGrabber.Exception e) {
+                // no decoder runs, nextFrame() ends the stream and throws the error
+                endOfStream(e);
+            }
+        }
+
+        /**
+         * Gives a frame returned by {@link #nextFrame()} back to the pool, frames kept in memory
+         * by the cache are released with the cache.
+         */
+        public void releaseFrame(Mat frame) {
+            if (mCache == null || !mCache.contains(frame)) {
+                mMatPool.release(frame);
+            }
+        }
+
+        /**
+         * Stops the decode stage, drops the cached frames and releases the grabber.
+         */
+        public void release() {
+            mMetrics.unwatchQueue(mDecoded);
+            stopDecoder();
+            if (mCache != null) {
+                mCache.clear();
+            }
+            try {
+                mFrameGrabber.release();
+            } catch (FrameGrabber.Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void seek() throws FrameGrabber.Exception {
+            if (mStartFrame > 0) {
+                mFrameGrabber.setFrameNumber(mStartFrame);
+            }
+        }
+
+        private void startDecoder() {
+            startDecoder(new Runnable() {
+                @Override
+                public void run() {
+                    decode();
+                }
+            });
+        }
+
+        private void startDecoder(Runnable runnable) {
+            mDecoder = new Thread(runnable, ">>>stab-decode");
+            mDecoder.start();
+        }
+
+        private void decode() {
+            try {
+                int decoded = 0;
+                while (!Thread.currentThread().isInterrupted()
+                        && (mFrameCount < 0 || decoded++ < mFrameCount)) {
+                    long started = mMetrics.start();
+                    Mat frame = mConverter.convert(mFrameGrabber.grabImage());
+                    if (frame == null || frame.empty()) {
+                        break;
+                    }
+                    // the grabber reuses its buffer for the next frame
+                    Mat copy = mMatPool.acquire(frame.rows(), frame.cols(), frame.type());
+                    frame.copyTo(copy);
+                    frame = copy;
+                    mMetrics.stop(StabilizationMetrics.Stage.DECODE, started);
+                    if (mCache != null) {
+                        mCache.add(frame);
+                    }
+                    mDecoded.put(frame);
+                }
+                if (mCache != null && !Thread.currentThread().isInterrupted()) {
+                    mCache.complete();
+                }
+                mDecoded.put(new Mat());
+            } catch (InterruptedException e) {
+                // stopped by reset or release
+            } catch (FrameGrabber.Exception | IOException e) {
+                endOfStream(e);
+            }
+        }
+
+        private void replay() {
+            try {
+                int size = mCache.size();
+                for (int i = 0; i < size && !Thread.currentThread().isInterrupted(); i++) {
+                    long started = mMetrics.start();
+                    Mat frame = mCache.get(i);
+                    mMetrics.stop(StabilizationMetrics.Stage.DECODE, started);
+                    mDecoded.put(frame);
+                }
+                mDecoded.put(new Mat());
+            } catch (InterruptedException e) {
+                // stopped by reset or release
+            } catch (IOException e) {
+                endOfStream(e);
+            }
+        }
+
+        /**
+         * Ends the stream after a decoding error, the stabilizer waits for the end marker so it
+         * must not be dropped.
+         */
+        private void endOfStream(Exception failure) {
+            mFailure = failure;
+            try {
+                mDecoded.put(new Mat());
+            } catch (InterruptedException e) {
+                // stopped by reset or release
+            }
+        }
+
+        private void stopDecoder() {
+            if (mDecoder == null) {
+                return;
+            }
+            mDecoder.interrupt();
+            try {
+                mDecoder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mDecoder = null;
+
+            Mat frame;
+            while ((frame = mDecoded.poll()) != null) {
+                releaseFrame(frame);
+            }
+        }
+    }
+
+    /**
+     * @param sizeImage size the resulting video fits in, after the rotation. The stabilized
+     *                  frames are scaled down in their warp, never scaled up, null to keep the
+     *                  size of the trimmed frames.
+     */
+    public void setSizeImage(opencv_core.Size sizeImage) {
+        this.mOutImgSize = sizeImage;
+    }
+
+    /**
+     * Writes several videos from one stabilization, instead of the resulting video: the source
+     * is decoded, analysed and warped once, then the frames are scaled and encoded for each
+     * rendition on its own thread, see {@link RenditionFanOut}. The size of
+     * {@link #setSizeImage(opencv_core.Size)} is not used. A job writing renditions is not split
+     * in segments.
+     *
+     * @param renditions videos written by the jobs, empty to write the resulting video.
+     */
+    public void setRenditions(List<Rendition> renditions) {
+        this.mRenditions = renditions != null
+                ? new ArrayList<>(renditions) : Collections.<Rendition>emptyList();
+    }
+
+    /**
+     * Stabilizes only a part of the source video. The decoding seeks to the nearest key frame
+     * before {@code start} minus {@link VideoStabConfig#getStabRadius()} frames and stops
+     * {@code radius} frames after {@code end}, so the cost depends on the length of the part,
+     * not of the video.
+     *
+     * @param start time of the first frame of the part, 0 from the start of the video.
+     * @param end time after the last frame of the part, 0 until the end of the video.
+     * @param unit unit of the times.
+     */
+    public void setRange(long start, long end, TimeUnit unit) {
+        this.mRangeStart = unit.toMicros(Math.max(0, start));
+        this.mRangeEnd = unit.toMicros(Math.max(0, end));
+    }
+    public void setRotateVideo(int angle) {
+        this.rotateVideo = angle;
+    }
+    public void setFrameGrabber(FFmpegFrameGrabber frameGrabber){
+        this.frameGrabber = frameGrabber;
+    }
+
+    public void setOnStabilizedListener(OnStabilizedListener onStabilizedListener) {
+        this.onStabilizedListener = onStabilizedListener;
+    }
+
+    /**
+     * @param metrics timings of the next jobs, read while they run, null to disable them.
+     */
+    public void setMetrics(StabilizationMetrics metrics) {
+        this.mMetrics = metrics != null ? metrics : StabilizationMetrics.DISABLED;
+    }
+
+    /**
+     * Cancels the running job, can be called from any thread. Called before a job starts, the
+     * job is cancelled as soon as it starts.
+     */
+    public void cancel() {
+        mJobToken.cancel();
+    }
+
+    /**
+     * @param token cancels the next jobs, may be shared with other jobs.
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.mCancellationToken = token != null ? token : new CancellationToken();
+    }
+
+    /**
+     * @param timeout time given to each job, counted from its start, 0 for no deadline. A job
+     *                past its deadline is cancelled.
+     * @param unit unit of the timeout.
+     */
+    public void setDeadline(long timeout, TimeUnit unit) {
+        this.mTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public StabilizationMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public VideoStabConfig getVideoStabConfig() {
+        return mVideoStabConfig;
+    }
+
+    /**
+     * @param factory creates the encoder of each resulting video, {@link FFmpegFrameEncoder}
+     *                by default.
+     */
+    public void setFrameEncoderFactory(FrameEncoder.Factory factory) {
+        this.mFrameEncoderFactory = factory;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.junit.Test;
+
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTokenTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void newToken_isNotCancelled() {
+        CancellationToken token = new CancellationToken();
+
+        assertFalse(token.isCancelled());
+        token.throwIfCancelled();
+    }
+
+    @Test
+    public void cancel_throwsInTheJob() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        assertTrue(token.isCancelled());
+        try {
+            token.throwIfCancelled();
+            fail("cancelled token didn't throw");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void callbacks_runOnce() {
+        CancellationToken token = new CancellationToken();
+        Counter first = new Counter();
+        Counter second = new Counter();
+        token.onCancel(first);
+        token.onCancel(second);
+        assertEquals(0, first.count.get());
+
+        token.cancel();
+        token.cancel();
+        assertEquals(1, first.count.get());
+        assertEquals(1, second.count.get());
+    }
+
+    @Test
+    public void callbackAfterCancel_runsAtOnce() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        Counter callback = new Counter();
+        token.onCancel(callback);
+        assertEquals(1, callback.count.get());
+
+        token.cancel();
+        assertEquals(1, callback.count.get());
+    }
+
+    @Test
+    public void removedCallback_doesNotRun() {
+        CancellationToken token = new CancellationToken();
+        Counter removed = new Counter();
+        Counter kept = new Counter();
+        token.onCancel(removed);
+        token.onCancel(kept);
+        token.removeOnCancel(removed);
+
+        token.cancel();
+        assertEquals(0, removed.count.get());
+        assertEquals(1, kept.count.get());
+    }
+
+    @Test
+    public void concurrentCancels_runTheCallbacksOnce() throws InterruptedException {
+        final CancellationToken token = new CancellationToken();
+        Counter callback = new Counter();
+        token.onCancel(callback);
+
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    token.cancel();
+                }
+            });
+            threads[i].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+
+        assertEquals(1, callback.count.get());
+    }
+
+    @Test
+    public void sharedToken_cancelsEveryJob() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        FakeJob first = new FakeJob(token);
+        FakeJob second = new FakeJob(token);
+        first.start();
+        second.start();
+        first.awaitRunning();
+        second.awaitRunning();
+
+        token.cancel();
+        first.awaitCancelled();
+        second.awaitCancelled();
+    }
+
+    @Test
+    public void cancelBeforeStart_stopsTheJobBeforeItsWork() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        FakeJob job = new FakeJob(token);
+        job.start();
+        job.awaitCancelled();
+        assertFalse(job.worked.get());
+        assertFalse(job.interrupted.get());
+    }
+
+    @Test
+    public void cancelWhileRunning_interruptsTheBlockedJob() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        FakeJob job = new FakeJob(token);
+        job.start();
+        job.awaitRunning();
+
+        token.cancel();
+        job.awaitCancelled();
+        assertTrue(job.worked.get());
+        assertTrue(job.interrupted.get());
+    }
+
+    @Test
+    public void deadline_cancelsTheToken() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        token.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelled.countDown();
+            }
+        });
+
+        token.cancelAfter(10);
+        assertTrue(cancelled.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(token.isCancelled());
+    }
+
+    @Test
+    public void cancelledDeadline_doesNotCancel() throws InterruptedException {
+        CancellationToken token = new CancellationToken();
+        TimerTask deadline = token.cancelAfter(50);
+        assertTrue(deadline.cancel());
+
+        Thread.sleep(200);
+        assertFalse(token.isCancelled());
+    }
+
+    private static class Counter implements Runnable {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks the token like the stages of a job: before its work, then while blocked on a
+     * queue which is never fed, interrupted by the token.
+     */
+    private static class FakeJob extends Thread {
+        final CancellationToken token;
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final AtomicBoolean worked = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        FakeJob(CancellationToken token) {
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            Runnable interrupt = new Runnable() {
+                @Override
+                public void run() {
+                    FakeJob.this.interrupt();
+                }
+            };
+            token.onCancel(interrupt);
+            try {
+                token.throwIfCancelled();
+                worked.set(true);
+                running.countDown();
+                queue.take();
+            } catch (CancellationException e) {
+                cancelled.countDown();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                cancelled.countDown();
+            } finally {
+                token.removeOnCancel(interrupt);
+            }
+        }
+
+        void awaitRunning() throws InterruptedException {
+            assertTrue("job not running", running.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        void awaitCancelled() throws InterruptedException {
+            assertTrue("job not cancelled", cancelled.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Memory and disk budgets of {@link FrameCache}, on small random frames.
+ */
+public class FrameCacheTest {
+
+    private static final int ROWS = 16;
+    private static final int COLS = 24;
+    private static final int FRAME_BYTES = ROWS * COLS * 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MatPool mMatPool;
+    private final List<Mat> mFrames = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mMatPool = new MatPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mMatPool.clear();
+    }
+
+    @Test
+    public void framesWithinTheMemoryBudget_stayInMemory() throws IOException {
+        FrameCache cache = cache(2, 10);
+        add(cache, 2);
+
+        assertEquals(2, cache.size());
+        for (int i = 0; i < 2; i++) {
+            assertTrue(cache.contains(mFrames.get(i)));
+            assertSame(mFrames.get(i), cache.get(i));
+        }
+        assertEquals(0, spillFiles().length);
+        cache.clear();
+    }
+
+    @Test
+    public void framesOverTheMemoryBudget_areSpilledAndReadBack() throws IOException {
+        FrameCache cache = cache(2, 10);
+        add(cache, 5);
+        cache.complete();
+
+        assertTrue(cache.isComplete());
+        assertEquals(5, cache.size());
+        assertEquals(1, spillFiles().length);
+        assertEquals(3L * FRAME_BYTES, spillFiles()[0].length());
+        for (int i = 0; i < 5; i++) {
+            Mat frame = cache.get(i);
+            assertArrayEquals("frame " + i, bytes(mFrames.get(i)), bytes(frame));
+            if (i < 2) {
+                assertSame(mFrames.get(i), frame);
+            } else {
+                assertFalse(cache.contains(mFrames.get(i)));
+                assertNotSame(mFrames.get(i), frame);
+                mMatPool.release(frame);
+            }
+        }
+        cache.clear();
+    }
+
+    @Test
+    public void spilledSubmatrix_isReadBack() throws IOException {
+        FrameCache cache = cache(0, 10);
+        Mat large = frame(COLS + 8, 7);
+        Rect rect = new Rect(3, 0, COLS, ROWS);
+        Mat view = new Mat(large, rect);
+        cache.add(view);
+
+        Mat frame = cache.get(0);
+        assertEquals(COLS, frame.cols());
+        assertEquals(ROWS, frame.rows());
+        assertArrayEquals(bytes(view), bytes(frame));
+        mMatPool.release(frame);
+        view.release();
+        rect.deallocate();
+        large.release();
+        cache.clear();
+    }
+
+    @Test
+    public void videoOverTheDiskBudget_overflows() throws IOException {
+        FrameCache cache = cache(1, 2);
+        add(cache, 5);
+        cache.complete();
+
+        // the frames after the overflow are not kept, the second pass decodes the video
+        assertFalse(cache.isComplete());
+        assertEquals(3, cache.size());
+        assertEquals(0, spillFiles().length);
+        // the caller may still use the frames kept in memory
+        assertTrue(cache.contains(mFrames.get(0)));
+        cache.clear();
+    }
+
+    @Test
+    public void clear_deletesTheSpillFile() throws IOException {
+        FrameCache cache = cache(1, 10);
+        add(cache, 3);
+        assertEquals(1, spillFiles().length);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.isComplete());
+        assertFalse(cache.contains(mFrames.get(0)));
+        assertEquals(0, spillFiles().length);
+
+        // the cache can be filled again
+        mFrames.clear();
+        add(cache, 3);
+        cache.complete();
+        assertTrue(cache.isComplete());
+        assertArrayEquals(bytes(mFrames.get(2)), bytes(cache.get(2)));
+        cache.clear();
+    }
+
+    /**
+     * @return a cache holding {@code memoryFrames} frames in memory and {@code diskFrames} on
+     * disk.
+     */
+    private FrameCache cache(int memoryFrames, int diskFrames) {
+        return new FrameCache((long) memoryFrames * FRAME_BYTES, (long) diskFrames * FRAME_BYTES,
+                folder.getRoot(), mMatPool);
+    }
+
+    private void add(FrameCache cache, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Mat frame = frame(COLS, mFrames.size());
+            mFrames.add(frame);
+            cache.add(frame);
+        }
+    }
+
+    private File[] spillFiles() {
+        File[] files = folder.getRoot().listFiles();
+        assertNotNull(files);
+        return files;
+    }
+
+    /**
+     * @return a frame of random pixels.
+     */
+    private static Mat frame(int cols, long seed) {
+        byte[] pixels = new byte[ROWS * cols * 3];
+        new Random(seed).nextBytes(pixels);
+        Mat frame = new Mat(ROWS, cols, CV_8UC3);
+        frame.data().put(pixels);
+        return frame;
+    }
+
+    private static byte[] bytes(Mat frame) {
+        Mat continuous = frame.isContinuous() ? frame : frame.clone();
+        byte[] bytes = new byte[(int) (continuous.total() * continuous.elemSize())];
+        continuous.data().get(bytes);
+        if (continuous != frame) {
+            continuous.release();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRangeTest {
+
+    private static final double FPS = 30;
+    private static final int RADIUS = 15;
+
+    @Test
+    public void noRange_isTheWholeVideo() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(0, 0, FPS, RADIUS);
+        assertSame(VideoStabilization.FrameRange.WHOLE, range);
+        assertTrue(range.isWhole());
+        assertEquals(100, range.count(track(100)));
+    }
+
+    @Test
+    public void start_decodesTheLookBehind() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(10000000, 0, FPS, RADIUS);
+        assertFalse(range.isWhole());
+        assertRange(range, 300 - RADIUS, -1, RADIUS, -1);
+        // the frames decoded before the start are not written
+        assertEquals(100 - RADIUS, range.count(track(100)));
+    }
+
+    @Test
+    public void startAndEnd_decodeTheLookBehindAndTheLookAhead() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(10000000, 12000000, FPS, RADIUS);
+        assertRange(range, 300 - RADIUS, RADIUS + 60 + RADIUS, RADIUS, 60);
+        assertEquals(60, range.count(track(RADIUS + 60 + RADIUS)));
+        // the video ends before the range
+        assertEquals(35, range.count(track(RADIUS + 35)));
+        assertEquals(0, range.count(track(RADIUS - 5)));
+    }
+
+    @Test
+    public void end_decodesTheLookAhead() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(0, 2000000, FPS, RADIUS);
+        assertFalse(range.isWhole());
+        assertRange(range, 0, 60 + RADIUS, 0, 60);
+    }
+
+    @Test
+    public void startNearTheBeginning_cutsTheLookBehind() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(200000, 1000000, FPS, RADIUS);
+        assertRange(range, 0, 6 + 24 + RADIUS, 6, 24);
+    }
+
+    @Test
+    public void partialFrames_areWritten() {
+        // the frame shown at the start and the frame shown at the end are both written
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(1010000, 1990000, FPS, RADIUS);
+        assertRange(range, 30 - RADIUS, RADIUS + 30 + RADIUS, RADIUS, 30);
+    }
+
+    @Test
+    public void endBeforeStart_writesNothing() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(2000000, 1000000, FPS, RADIUS);
+        assertRange(range, 60 - RADIUS, RADIUS + RADIUS, RADIUS, 0);
+        assertEquals(0, range.count(track(100)));
+    }
+
+    @Test
+    public void zeroRadius_decodesTheRangeOnly() {
+        VideoStabilization.FrameRange range = VideoStabilization.FrameRange.of(10000000, 12000000, FPS, 0);
+        assertRange(range, 300, 60, 0, 60);
+    }
+
+    private static void assertRange(VideoStabilization.FrameRange range, int decodeStart, int decodeCount,
+                                    int skip, int count) {
+        assertEquals("decode start", decodeStart, range.decodeStart);
+        assertEquals("decode count", decodeCount, range.decodeCount);
+        assertEquals("skip", skip, range.skip);
+        assertEquals("count", count, range.count);
+    }
+
+    /**
+     * @return motions of {@code n} frames of a static camera.
+     */
+    private static MotionTrack track(int n) {
+        MotionTrack motions = new MotionTrack(640, 360);
+        double[] motion = new double[MotionMath.SIZE];
+        MotionMath.identity(motion, 0);
+        for (int i = 1; i < n; i++) {
+            motions.add(motion);
+        }
+        return motions;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRingTest {
+
+    private static final int ROWS = 12;
+    private static final int COLS = 20;
+    private static final int FRAME_BYTES = ROWS * COLS * 3;
+
+    @Test
+    public void capacity_isBoundedByTheMemory() {
+        // no limit
+        assertEquals(11, FrameRing.capacity(FRAME_BYTES, 0, 11));
+        assertEquals(1, FrameRing.capacity(FRAME_BYTES, 0, 0));
+        // enough memory
+        assertEquals(11, FrameRing.capacity(FRAME_BYTES, 100L * FRAME_BYTES, 11));
+        assertEquals(11, FrameRing.capacity(FRAME_BYTES, 11L * FRAME_BYTES, 11));
+        // the whole frames that fit
+        assertEquals(3, FrameRing.capacity(FRAME_BYTES, 3L * FRAME_BYTES + FRAME_BYTES / 2, 11));
+        // at least one frame, even over the limit
+        assertEquals(1, FrameRing.capacity(FRAME_BYTES, FRAME_BYTES / 2, 11));
+    }
+
+    @Test
+    public void put_reusesTheSlots() {
+        FrameRing ring = new FrameRing(ROWS, COLS, CV_8UC3, 3);
+        assertEquals(3, ring.capacity());
+
+        Mat[] slots = new Mat[7];
+        for (int i = 0; i < slots.length; i++) {
+            Mat frame = frame(i);
+            slots[i] = ring.put(frame);
+            assertArrayEquals("frame " + i, bytes(frame), bytes(slots[i]));
+            frame.release();
+        }
+        for (int i = 0; i < 3; i++) {
+            assertNotSame(slots[i], slots[(i + 1) % 3]);
+        }
+        for (int i = 3; i < slots.length; i++) {
+            assertSame(slots[i - 3], slots[i]);
+        }
+        ring.release();
+    }
+
+    @Test
+    public void put_copiesTheFrame() {
+        FrameRing ring = new FrameRing(ROWS, COLS, CV_8UC3, 2);
+        Mat frame = frame(1);
+        byte[] expected = bytes(frame);
+
+        Mat slot = ring.put(frame);
+        assertNotSame(frame, slot);
+        // the frame can be reused by the caller
+        byte[] other = new byte[FRAME_BYTES];
+        new Random(2).nextBytes(other);
+        frame.data().put(other);
+        assertArrayEquals(expected, bytes(slot));
+
+        // the slots do not overlap
+        Mat next = ring.put(frame);
+        assertArrayEquals(expected, bytes(slot));
+        assertArrayEquals(bytes(frame), bytes(next));
+
+        frame.release();
+        ring.release();
+    }
+
+    @Test
+    public void fits_onlyFramesOfTheRing() {
+        FrameRing ring = new FrameRing(ROWS, COLS, CV_8UC3, 1);
+        Mat same = new Mat(ROWS, COLS, CV_8UC3);
+        Mat taller = new Mat(ROWS + 2, COLS, CV_8UC3);
+        Mat wider = new Mat(ROWS, COLS + 2, CV_8UC3);
+        Mat gray = new Mat(ROWS, COLS, CV_8UC1);
+
+        assertTrue(ring.fits(same));
+        assertFalse(ring.fits(taller));
+        assertFalse(ring.fits(wider));
+        assertFalse(ring.fits(gray));
+
+        same.release();
+        taller.release();
+        wider.release();
+        gray.release();
+        ring.release();
+    }
+
+    /**
+     * @return a frame of random pixels.
+     */
+    private static Mat frame(long seed) {
+        byte[] pixels = new byte[FRAME_BYTES];
+        new Random(seed).nextBytes(pixels);
+        Mat frame = new Mat(ROWS, COLS, CV_8UC3);
+        frame.data().put(pixels);
+        return frame;
+    }
+
+    private static byte[] bytes(Mat frame) {
+        byte[] bytes = new byte[(int) (frame.total() * frame.elemSize())];
+        frame.data().get(bytes);
+        return bytes;
+    }
+}
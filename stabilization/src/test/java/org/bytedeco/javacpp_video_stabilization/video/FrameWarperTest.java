@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.junit.Assert.assertEquals;
+
+public class FrameWarperTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 100;
+
+    private MatPool mMatPool;
+
+    /** frame whose pixels are their column */
+    private Mat mGradient;
+
+    private final double[] mIdentity = new double[MotionMath.SIZE];
+
+    @Before
+    public void setUp() {
+        mMatPool = new MatPool(4);
+        mGradient = new Mat(HEIGHT, WIDTH, CV_8UC1);
+        UByteIndexer indexer = mGradient.createIndexer();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                indexer.put(y, x, x);
+            }
+        }
+        indexer.release();
+        MotionMath.identity(mIdentity, 0);
+    }
+
+    @After
+    public void tearDown() {
+        mGradient.release();
+        mMatPool.clear();
+    }
+
+    @Test
+    public void fit_keepsTheAspectRatio() {
+        assertSize(1920, 1080, FrameWarper.fit(1920, 1080, null));
+        assertSize(1920, 1080, FrameWarper.fit(1920, 1080, new Size(0, 0)));
+        assertSize(1280, 720, FrameWarper.fit(1920, 1080, new Size(1280, 720)));
+        assertSize(1280, 720, FrameWarper.fit(1920, 1080, new Size(1280, 1280)));
+        assertSize(404, 720, FrameWarper.fit(1080, 1920, new Size(1280, 720)));
+        // never scaled up
+        assertSize(640, 360, FrameWarper.fit(640, 360, new Size(1280, 720)));
+        // even sizes, at least 2
+        assertSize(320, 180, FrameWarper.fit(640, 362, new Size(320, 1000)));
+        assertSize(100, 2, FrameWarper.fit(1000, 2, new Size(100, 100)));
+    }
+
+    @Test
+    public void trim_cropsTheBorders() {
+        Mat warped = warp(0.1f, 0, null);
+        assertSize(160, 80, warped.size());
+        assertColumns(warped, 20, 1, 0);
+        mMatPool.release(warped);
+    }
+
+    @Test
+    public void halfScale_warpsTheFrame() {
+        Mat warped = warp(0, 0, new Size(100, 100));
+        assertSize(100, 50, warped.size());
+        // pixel centers: x = (c + 0.5) * 2 - 0.5
+        assertColumns(warped, 0.5, 2, 1);
+        mMatPool.release(warped);
+    }
+
+    @Test
+    public void smallScale_shrinksTheFrameFirst() {
+        Mat warped = warp(0, 0, new Size(40, 100));
+        assertSize(40, 20, warped.size());
+        // the mean of 5 columns, not 2 of them
+        assertColumns(warped, 2, 5, 1);
+        mMatPool.release(warped);
+    }
+
+    @Test
+    public void rotation_isClockwise() {
+        Mat warped = warp(0.1f, 90, null);
+        assertSize(80, 160, warped.size());
+        // the top of the trimmed frame is on the right
+        assertRows(warped, 20, 1, 0);
+        mMatPool.release(warped);
+
+        warped = warp(0.1f, 270, null);
+        assertSize(80, 160, warped.size());
+        assertRows(warped, 179, -1, 0);
+        mMatPool.release(warped);
+
+        warped = warp(0.1f, 180, null);
+        assertSize(160, 80, warped.size());
+        assertColumns(warped, 179, -1, 0);
+        mMatPool.release(warped);
+    }
+
+    @Test
+    public void trimRotationAndScale_areComposed() {
+        Mat warped = warp(0.1f, 90, new Size(40, 100));
+        assertSize(40, 80, warped.size());
+        assertRows(warped, 20.5, 2, 1);
+        mMatPool.release(warped);
+    }
+
+    private Mat warp(float trimRatio, int rotation, Size target) {
+        VideoStabConfig config = new VideoStabConfig();
+        config.setStabTrimRatio(trimRatio);
+        FrameWarper warper = new FrameWarper(config, null, rotation, target, mMatPool);
+        Mat warped = warper.warp(mGradient, mIdentity, 0);
+        warper.release();
+        return warped;
+    }
+
+    private static void assertSize(int width, int height, Size size) {
+        assertEquals("width", width, size.width());
+        assertEquals("height", height, size.height());
+    }
+
+    /**
+     * Asserts the pixels of column {@code c} are {@code first + c * step} in every row.
+     */
+    private static void assertColumns(Mat warped, double first, double step, double delta) {
+        UByteIndexer indexer = warped.createIndexer();
+        for (int r = 0; r < warped.rows(); r++) {
+            for (int c = 0; c < warped.cols(); c++) {
+                assertEquals("(" + c + ", " + r + ")", first + c * step, indexer.get(r, c), delta);
+            }
+        }
+        indexer.release();
+    }
+
+    /**
+     * Asserts the pixels of row {@code r} are {@code first + r * step} in every column.
+     */
+    private static void assertRows(Mat warped, double first, double step, double delta) {
+        UByteIndexer indexer = warped.createIndexer();
+        for (int r = 0; r < warped.rows(); r++) {
+            for (int c = 0; c < warped.cols(); c++) {
+                assertEquals("(" + c + ", " + r + ")", first + r * step, indexer.get(r, c), delta);
+            }
+        }
+        indexer.release();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_videostab;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MotionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mVideo;
+    private MotionCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        // bigger than two samples, so the middle of the video is not hashed
+        mVideo = video("video.mp4", 3 * MotionCache.SAMPLE_BYTES, 1);
+        mCache = new MotionCache(new File(folder.getRoot(), "motions"));
+    }
+
+    @Test
+    public void store_isLoaded() throws IOException {
+        MotionTrack motions = motions(50);
+        mCache.store("key", motions);
+
+        MotionTrack loaded = mCache.load("key");
+        assertNotNull(loaded);
+        assertEquals(motions.getFrameWidth(), loaded.getFrameWidth());
+        assertEquals(motions.getFrameHeight(), loaded.getFrameHeight());
+        assertEquals(motions.size(), loaded.size());
+        // the entries are written as floats
+        for (int i = 0; i < motions.size() * MotionMath.SIZE; i++) {
+            assertEquals((float) motions.array()[i], loaded.array()[i], 0);
+        }
+    }
+
+    @Test
+    public void store_replacesTheEntry() throws IOException {
+        mCache.store("key", motions(50));
+        mCache.store("key", motions(20));
+
+        assertEquals(20, mCache.load("key").size());
+    }
+
+    @Test
+    public void unknownKey_isAMiss() throws IOException {
+        mCache.store("key", motions(10));
+
+        assertNull(mCache.load("other"));
+        assertNull(new MotionCache(new File(folder.getRoot(), "missing")).load("key"));
+    }
+
+    @Test
+    public void key_isStable() throws IOException {
+        String path = mVideo.getPath();
+
+        assertEquals(MotionCache.key(path, new VideoStabConfig()), MotionCache.key(path, new VideoStabConfig()));
+    }
+
+    @Test
+    public void key_changesWithTheEstimationSettings() throws IOException {
+        String path = mVideo.getPath();
+        String key = MotionCache.key(path, new VideoStabConfig());
+
+        VideoStabConfig config = new VideoStabConfig();
+        config.setMotionMode(opencv_videostab.MM_SIMILARITY);
+        assertNotEquals(key, MotionCache.key(path, config));
+
+        config = new VideoStabConfig();
+        config.setRansacThresh(config.getRansacThresh() + 1);
+        assertNotEquals(key, MotionCache.key(path, config));
+
+        config = new VideoStabConfig();
+        config.setProxyScale(config.getProxyScale() / 2);
+        assertNotEquals(key, MotionCache.key(path, config));
+
+        config = new VideoStabConfig();
+        config.setKeypointTracking(!config.isKeypointTracking());
+        assertNotEquals(key, MotionCache.key(path, config));
+
+        config = new VideoStabConfig();
+        config.setMotionVectors(!config.isMotionVectors());
+        assertNotEquals(key, MotionCache.key(path, config));
+    }
+
+    @Test
+    public void key_ignoresTheSmoothingSettings() throws IOException {
+        String path = mVideo.getPath();
+        String key = MotionCache.key(path, new VideoStabConfig());
+
+        VideoStabConfig config = new VideoStabConfig();
+        config.setStabRadius(config.getStabRadius() + 10);
+        config.setStabTrimRatio(0.2f);
+        assertEquals(key, MotionCache.key(path, config));
+    }
+
+    @Test
+    public void key_changesWithTheVideo() throws IOException {
+        VideoStabConfig config = new VideoStabConfig();
+        String key = MotionCache.key(mVideo.getPath(), config);
+
+        assertNotEquals(key, MotionCache.key(video("other.mp4", 3 * MotionCache.SAMPLE_BYTES, 2).getPath(), config));
+        // same samples, other length
+        assertNotEquals(key, MotionCache.key(video("longer.mp4", 3 * MotionCache.SAMPLE_BYTES + 1, 1).getPath(), config));
+
+        // the last bytes are hashed
+        RandomAccessFile file = new RandomAccessFile(mVideo, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        } finally {
+            file.close();
+        }
+        assertNotEquals(key, MotionCache.key(mVideo.getPath(), config));
+    }
+
+    @Test
+    public void key_ofAShortVideo() throws IOException {
+        VideoStabConfig config = new VideoStabConfig();
+        String path = video("short.mp4", 1000, 1).getPath();
+
+        assertEquals(MotionCache.key(path, config), MotionCache.key(path, config));
+    }
+
+    @Test
+    public void truncatedEntry_isAMiss() throws IOException {
+        mCache.store("key", motions(50));
+        File entry = entry();
+        for (long length : new long[]{entry.length() - 1, 4 * MotionMath.SIZE, 6, 0}) {
+            RandomAccessFile file = new RandomAccessFile(entry, "rw");
+            try {
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+
+            assertNull("length " + length, mCache.load("key"));
+        }
+    }
+
+    @Test
+    public void corruptedEntry_isAMiss() throws IOException {
+        mCache.store("key", motions(50));
+        File entry = entry();
+
+        // other magic
+        overwrite(entry, 0, 0x12345678);
+        assertNull(mCache.load("key"));
+
+        // other version
+        mCache.store("key", motions(50));
+        overwrite(entry, 4, 99);
+        assertNull(mCache.load("key"));
+
+        // negative count
+        mCache.store("key", motions(50));
+        overwrite(entry, 16, -1);
+        assertNull(mCache.load("key"));
+
+        // count not matching the motions
+        mCache.store("key", motions(50));
+        overwrite(entry, 16, 10);
+        assertNull(mCache.load("key"));
+        overwrite(entry, 16, 51);
+        assertNull(mCache.load("key"));
+
+        // garbage
+        FileOutputStream out = new FileOutputStream(entry);
+        try {
+            byte[] garbage = new byte[500];
+            new Random(3).nextBytes(garbage);
+            out.write(garbage);
+        } finally {
+            out.close();
+        }
+        assertNull(mCache.load("key"));
+    }
+
+    /**
+     * @return the only entry of the cache.
+     */
+    private File entry() {
+        File[] entries = new File(folder.getRoot(), "motions").listFiles();
+        assertNotNull(entries);
+        assertEquals(1, entries.length);
+        return entries[0];
+    }
+
+    /**
+     * Writes an int of the header of an entry.
+     */
+    private static void overwrite(File entry, long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return a file of random bytes.
+     */
+    private File video(String name, int length, long seed) throws IOException {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+
+        File video = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(video);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return video;
+    }
+
+    /**
+     * @return {@code count} random motions of a 1280x720 video.
+     */
+    private static MotionTrack motions(int count) {
+        Random random = new Random(count);
+        MotionTrack motions = new MotionTrack(1280, 720);
+        double[] motion = new double[MotionMath.SIZE];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < MotionMath.SIZE; j++) {
+                motion[j] = random.nextGaussian();
+            }
+            motions.add(motion);
+        }
+        return motions;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MotionSmootherTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    @Test
+    public void staticCamera_isNotMoved() {
+        MotionTrack motions = track(100);
+        for (VideoStabConfig.SmoothingFilter filter : VideoStabConfig.SmoothingFilter.values()) {
+            double[] stabilization = new MotionSmoother(15, filter).stabilize(motions);
+
+            for (int k = 0; k < motions.frameCount(); k++) {
+                assertIdentity(stabilization, k, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void constantPan_isKeptInsideTheVideo() {
+        int radius = 10;
+        MotionTrack motions = pan(100, 2, -1);
+        for (VideoStabConfig.SmoothingFilter filter : VideoStabConfig.SmoothingFilter.values()) {
+            double[] stabilization = new MotionSmoother(radius, filter).stabilize(motions);
+
+            // a symmetric window on a linear trajectory averages to the frame itself
+            for (int k = radius; k < motions.frameCount() - radius; k++) {
+                assertIdentity(stabilization, k, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void linearDrift_isClampedAtTheEnds() {
+        int radius = 10;
+        int n = 100;
+        MotionTrack motions = pan(n, 2, -1);
+        double[] stabilization = new MotionSmoother(radius, VideoStabConfig.SmoothingFilter.MOVING_AVERAGE)
+                .stabilize(motions);
+
+        // the window [k - radius, k + radius] is cut at both ends, its mean moves inside the video
+        for (int k = 0; k < n; k++) {
+            int first = Math.max(0, k - radius);
+            int last = Math.min(n - 1, k + radius);
+            double shift = (first + last) / 2.0 - k;
+
+            int offset = k * MotionMath.SIZE;
+            assertEquals("frame " + k, 2 * shift, stabilization[offset + 2], 1e-9);
+            assertEquals("frame " + k, -shift, stabilization[offset + 5], 1e-9);
+        }
+        assertEquals(radius, stabilization[2], 1e-9);
+        assertEquals(-radius, stabilization[(n - 1) * MotionMath.SIZE + 2], 1e-9);
+    }
+
+    @Test
+    public void movingAverage_matchesTheDirectFilter() {
+        MotionTrack motions = shake(200, 7);
+        MotionSmoother smoother = new MotionSmoother(12, VideoStabConfig.SmoothingFilter.MOVING_AVERAGE);
+
+        assertClose(direct(motions, smoother, 12), smoother.stabilize(motions), 1e-9, 1e-9);
+    }
+
+    @Test
+    public void gaussian_matchesTheDirectFilter() {
+        for (int radius : new int[]{3, 15, 40}) {
+            MotionTrack motions = shake(300, radius);
+            MotionSmoother smoother = new MotionSmoother(radius, VideoStabConfig.SmoothingFilter.GAUSSIAN);
+
+            double[] expected = direct(motions, smoother, radius);
+            double[] actual = smoother.stabilize(motions);
+
+            // three boxes approximate the gaussian, up to a fraction of a pixel for a shake of 3
+            // pixels per frame; the boxes are cut one after the other at the ends of the video
+            int inside = radius * MotionMath.SIZE;
+            int end = expected.length - inside;
+            assertClose(Arrays.copyOfRange(expected, inside, end), Arrays.copyOfRange(actual, inside, end), 0.01, 0.5);
+            assertClose(expected, actual, 0.01, 1.5);
+        }
+    }
+
+    @Test
+    public void zeroRadius_isNotMoved() {
+        MotionTrack motions = shake(50, 1);
+        for (VideoStabConfig.SmoothingFilter filter : VideoStabConfig.SmoothingFilter.values()) {
+            double[] stabilization = new MotionSmoother(0, filter).stabilize(motions);
+
+            for (int k = 0; k < motions.frameCount(); k++) {
+                assertIdentity(stabilization, k, 1e-9);
+            }
+        }
+    }
+
+    /**
+     * @return {@code n} frames of a static camera.
+     */
+    private static MotionTrack track(int n) {
+        MotionTrack motions = new MotionTrack(WIDTH, HEIGHT);
+        double[] motion = new double[MotionMath.SIZE];
+        MotionMath.identity(motion, 0);
+        for (int i = 1; i < n; i++) {
+            motions.add(motion);
+        }
+        return motions;
+    }
+
+    /**
+     * @return {@code n} frames of a camera moving by {@code (dx, dy)} pixels per frame.
+     */
+    private static MotionTrack pan(int n, double dx, double dy) {
+        MotionTrack motions = new MotionTrack(WIDTH, HEIGHT);
+        double[] motion = new double[MotionMath.SIZE];
+        MotionMath.identity(motion, 0);
+        motion[2] = dx;
+        motion[5] = dy;
+        for (int i = 1; i < n; i++) {
+            motions.add(motion);
+        }
+        return motions;
+    }
+
+    /**
+     * @return {@code n} frames of a hand held camera: small rotations, zooms and translations.
+     */
+    private static MotionTrack shake(int n, long seed) {
+        Random random = new Random(seed);
+        MotionTrack motions = new MotionTrack(WIDTH, HEIGHT);
+        double[] motion = new double[MotionMath.SIZE];
+        for (int i = 1; i < n; i++) {
+            double angle = random.nextGaussian() * 0.002;
+            double scale = 1 + random.nextGaussian() * 0.001;
+            motion[0] = scale * Math.cos(angle);
+            motion[1] = -scale * Math.sin(angle);
+            motion[2] = random.nextGaussian() * 3 + 0.5;
+            motion[3] = scale * Math.sin(angle);
+            motion[4] = scale * Math.cos(angle);
+            motion[5] = random.nextGaussian() * 3;
+            motion[6] = 0;
+            motion[7] = 0;
+            motion[8] = 1;
+            motions.add(motion);
+        }
+        return motions;
+    }
+
+    /**
+     * @return the stabilization computed from its definition, in {@code O(n * radius)}.
+     */
+    private static double[] direct(MotionTrack motions, MotionSmoother smoother, int radius) {
+        int n = motions.frameCount();
+        int size = MotionMath.SIZE;
+
+        double[] cumulative = new double[n * size];
+        MotionMath.identity(cumulative, 0);
+        for (int i = 1; i < n; i++) {
+            MotionMath.multiply(motions.array(), (i - 1) * size, cumulative, (i - 1) * size, cumulative, i * size);
+        }
+
+        double[] stabilization = new double[n * size];
+        double[] mean = new double[size];
+        double[] inverse = new double[size];
+        for (int k = 0; k < n; k++) {
+            double sum = 0;
+            Arrays.fill(mean, 0);
+            for (int i = Math.max(0, k - radius); i <= Math.min(n - 1, k + radius); i++) {
+                double weight = smoother.weight(i - k);
+                sum += weight;
+                for (int j = 0; j < size; j++) {
+                    mean[j] += weight * cumulative[i * size + j];
+                }
+            }
+            for (int j = 0; j < size; j++) {
+                mean[j] /= sum;
+            }
+            MotionMath.invert(cumulative, k * size, inverse, 0);
+            MotionMath.multiply(mean, 0, inverse, 0, stabilization, k * size);
+        }
+        return stabilization;
+    }
+
+    private static void assertIdentity(double[] stabilization, int k, double delta) {
+        double[] identity = new double[MotionMath.SIZE];
+        MotionMath.identity(identity, 0);
+        for (int j = 0; j < MotionMath.SIZE; j++) {
+            assertEquals("frame " + k + ", element " + j, identity[j], stabilization[k * MotionMath.SIZE + j], delta);
+        }
+    }
+
+    /**
+     * @param linear tolerance of the linear part of the matrices.
+     * @param translation tolerance of the translations, in pixels.
+     */
+    private static void assertClose(double[] expected, double[] actual, double linear, double translation) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            int j = i % MotionMath.SIZE;
+            double delta = j == 2 || j == 5 ? translation : linear;
+            assertEquals("frame " + i / MotionMath.SIZE + ", element " + j, expected[i], actual[i], delta);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class OnlineStabilizerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private MatPool mMatPool;
+
+    @Before
+    public void setUp() {
+        mMatPool = new MatPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        mMatPool.clear();
+    }
+
+    @Test
+    public void movingAverage_matchesTheTwoPassStabilization() {
+        int radius = 8;
+        int n = 120;
+        List<double[]> motions = shake(n, 3);
+        MotionSmoother smoother = new MotionSmoother(radius, VideoStabConfig.SmoothingFilter.MOVING_AVERAGE);
+
+        MotionTrack track = new MotionTrack(WIDTH, HEIGHT);
+        for (double[] motion : motions) {
+            track.add(motion);
+        }
+        double[] expected = smoother.stabilize(track);
+
+        // the window is cut at both ends of the video, like the boxes of the two pass smoothing
+        double[] stabilization = new double[MotionMath.SIZE];
+        for (int k = 0; k < n; k++) {
+            int before = Math.min(k, radius);
+            int after = Math.min(radius, n - 1 - k);
+            OnlineStabilizer.window(smoother, motions.subList(k - before, k + after), before, after,
+                    stabilization);
+
+            for (int j = 0; j < MotionMath.SIZE; j++) {
+                assertEquals("frame " + k, expected[k * MotionMath.SIZE + j], stabilization[j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void shrunkLookAhead_weighsTheFramesOfTheWindow() {
+        int radius = 10;
+        List<double[]> motions = pan(2 * radius, 2, -1);
+        double[] stabilization = new double[MotionMath.SIZE];
+        for (VideoStabConfig.SmoothingFilter filter : VideoStabConfig.SmoothingFilter.values()) {
+            MotionSmoother smoother = new MotionSmoother(radius, filter);
+
+            for (int after : new int[]{radius, 4, 0}) {
+                OnlineStabilizer.window(smoother, motions.subList(0, radius + after), radius, after,
+                        stabilization);
+
+                // on a pan the frame at distance j is moved by j times the motion of a frame
+                double moments = 0;
+                double sum = 0;
+                for (int j = -radius; j <= after; j++) {
+                    moments += j * smoother.weight(j);
+                    sum += smoother.weight(j);
+                }
+                double shift = moments / sum;
+                String message = filter + " after " + after;
+                assertEquals(message, 2 * shift, stabilization[2], 1e-9);
+                assertEquals(message, -shift, stabilization[5], 1e-9);
+                assertEquals(message, 1, stabilization[0], 1e-9);
+                assertEquals(message, 1, stabilization[4], 1e-9);
+            }
+            // a symmetric window on a pan averages to the frame itself
+            OnlineStabilizer.window(smoother, motions, radius, radius, stabilization);
+            assertEquals(filter.toString(), 0, stabilization[2], 1e-9);
+            assertEquals(filter.toString(), 0, stabilization[5], 1e-9);
+        }
+    }
+
+    @Test
+    public void push_waitsForTheLookAhead() {
+        int radius = 5;
+        int n = 12;
+        OnlineStabilizer stabilizer = new OnlineStabilizer(config(radius), 0, null, mMatPool,
+                StabilizationMetrics.DISABLED);
+        Mat frame = frame(1);
+
+        int stabilized = 0;
+        for (int i = 0; i < n; i++) {
+            Mat output = stabilizer.push(frame);
+            if (i < radius) {
+                assertNull("push " + i, output);
+            } else {
+                assertNotNull("push " + i, output);
+                mMatPool.release(output);
+                stabilized++;
+            }
+        }
+        Mat output;
+        while ((output = stabilizer.flush()) != null) {
+            mMatPool.release(output);
+            stabilized++;
+        }
+        assertEquals(n, stabilized);
+        assertNull(stabilizer.flush());
+
+        stabilizer.release();
+        frame.release();
+    }
+
+    @Test
+    public void memoryCap_shrinksTheLookAhead() {
+        VideoStabConfig config = config(10);
+        // three frames of the window fit, the frame and two after it
+        config.setFrameMemoryCap(3L * WIDTH * HEIGHT * 3);
+        OnlineStabilizer stabilizer = new OnlineStabilizer(config, 0, null, mMatPool,
+                StabilizationMetrics.DISABLED);
+        Mat frame = frame(3);
+
+        int stabilized = 0;
+        for (int i = 0; i < 15; i++) {
+            Mat output = stabilizer.push(frame);
+            if (i < 2) {
+                assertNull("push " + i, output);
+            } else {
+                assertNotNull("push " + i, output);
+                mMatPool.release(output);
+                stabilized++;
+            }
+        }
+        Mat output;
+        while ((output = stabilizer.flush()) != null) {
+            mMatPool.release(output);
+            stabilized++;
+        }
+        assertEquals(15, stabilized);
+
+        stabilizer.release();
+        frame.release();
+    }
+
+    @Test
+    public void staticCamera_isNotMoved() {
+        OnlineStabilizer stabilizer = new OnlineStabilizer(config(3), 0, null, mMatPool,
+                StabilizationMetrics.DISABLED);
+        Mat frame = frame(2);
+        byte[] expected = bytes(frame);
+
+        List<Mat> outputs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Mat output = stabilizer.push(frame);
+            if (output != null) {
+                outputs.add(output);
+            }
+        }
+        Mat output;
+        while ((output = stabilizer.flush()) != null) {
+            outputs.add(output);
+        }
+
+        assertEquals(6, outputs.size());
+        for (Mat stabilized : outputs) {
+            assertEquals(WIDTH, stabilized.cols());
+            assertEquals(HEIGHT, stabilized.rows());
+            assertArrayEquals(expected, bytes(stabilized));
+            mMatPool.release(stabilized);
+        }
+        stabilizer.release();
+        frame.release();
+    }
+
+    /**
+     * @return configs of a stabilization which does not trim the frames.
+     */
+    private static VideoStabConfig config(int radius) {
+        VideoStabConfig config = new VideoStabConfig();
+        config.setStabRadius(radius);
+        config.setStabTrimRatio(0);
+        return config;
+    }
+
+    /**
+     * @return a frame of random pixels.
+     */
+    private static Mat frame(long seed) {
+        byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        new Random(seed).nextBytes(pixels);
+        Mat frame = new Mat(HEIGHT, WIDTH, CV_8UC3);
+        frame.data().put(pixels);
+        return frame;
+    }
+
+    private static byte[] bytes(Mat frame) {
+        Mat continuous = frame.isContinuous() ? frame : frame.clone();
+        byte[] bytes = new byte[(int) (continuous.total() * continuous.elemSize())];
+        continuous.data().get(bytes);
+        if (continuous != frame) {
+            continuous.release();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return motions of {@code n} frames of a camera moving by {@code (dx, dy)} pixels per frame.
+     */
+    private static List<double[]> pan(int n, double dx, double dy) {
+        List<double[]> motions = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double[] motion = new double[MotionMath.SIZE];
+            MotionMath.identity(motion, 0);
+            motion[2] = dx;
+            motion[5] = dy;
+            motions.add(motion);
+        }
+        return motions;
+    }
+
+    /**
+     * @return motions between {@code n} frames of a hand held camera.
+     */
+    private static List<double[]> shake(int n, long seed) {
+        Random random = new Random(seed);
+        List<double[]> motions = new ArrayList<>();
+        for (int i = 1; i < n; i++) {
+            double angle = random.nextGaussian() * 0.002;
+            double scale = 1 + random.nextGaussian() * 0.001;
+            motions.add(new double[]{
+                    scale * Math.cos(angle), -scale * Math.sin(angle), random.nextGaussian() * 3 + 0.5,
+                    scale * Math.sin(angle), scale * Math.cos(angle), random.nextGaussian() * 3,
+                    0, 0, 1});
+        }
+        return motions;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sharing of the frames between the writers of {@link RenditionFanOut}, with fake encoders which
+ * only record the frames: the frames are never scaled.
+ */
+public class RenditionFanOutTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final double FPS = 30;
+
+    private final CountingPool mMatPool = new CountingPool();
+    private final List<Mat> mFrames = new ArrayList<>();
+    private RenditionFanOut mFanOut;
+
+    @After
+    public void tearDown() {
+        if (mFanOut != null) {
+            mFanOut.release();
+        }
+        for (Mat frame : mFrames) {
+            frame.release();
+        }
+    }
+
+    @Test(timeout = 2 * TIMEOUT_MILLIS)
+    public void everyWriter_encodesEveryFrame() throws Exception {
+        List<FakeEncoder> encoders = encoders(new FakeEncoder(), new FakeEncoder(), new FakeEncoder());
+        fanOut(encoders, 2);
+        for (int i = 0; i < 10; i++) {
+            mFanOut.accept(i, frame());
+        }
+        mFanOut.finish();
+
+        for (FakeEncoder encoder : encoders) {
+            assertEquals(1, encoder.starts.get());
+            assertEquals(8, encoder.width);
+            assertEquals(6, encoder.height);
+            assertEquals(FPS, encoder.frameRate, 0);
+            assertEquals(mFrames, encoder.frames);
+        }
+        // back to the pool once, after the last writer
+        for (Mat frame : mFrames) {
+            assertEquals(1, mMatPool.released(frame));
+        }
+    }
+
+    @Test(timeout = 2 * TIMEOUT_MILLIS)
+    public void failedWriter_releasesEveryFrame() throws Exception {
+        FakeEncoder failing = new FakeEncoder() {
+            @Override
+            public void encode(Mat frame) throws Exception {
+                super.encode(frame);
+                if (frames.size() == 2) {
+                    throw failure;
+                }
+            }
+        };
+        fanOut(encoders(new FakeEncoder(), failing), 1);
+
+        // the failed writer keeps draining its queue, the frames after the error are not blocked
+        Exception thrown = null;
+        for (int i = 0; i < 20 && thrown == null; i++) {
+            try {
+                mFanOut.accept(i, frame());
+            } catch (Exception e) {
+                thrown = e;
+            }
+        }
+        assertSame(failing.failure, thrown);
+        try {
+            mFanOut.finish();
+            fail("finished after an error");
+        } catch (Exception e) {
+            assertSame(failing.failure, e);
+        }
+        assertEquals(2, failing.frames.size());
+        for (Mat frame : mFrames) {
+            assertEquals(1, mMatPool.released(frame));
+        }
+    }
+
+    @Test(timeout = 2 * TIMEOUT_MILLIS)
+    public void slowWriter_holdsBackTheFrames() throws Exception {
+        final CountDownLatch resume = new CountDownLatch(1);
+        FakeEncoder slow = new FakeEncoder() {
+            @Override
+            public void encode(Mat frame) throws Exception {
+                resume.await();
+                super.encode(frame);
+            }
+        };
+        FakeEncoder fast = new FakeEncoder();
+        fanOut(encoders(slow, fast), 2);
+
+        final int count = 10;
+        for (int i = 0; i < count; i++) {
+            frame();
+        }
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        mFanOut.accept(i, mFrames.get(i));
+                        accepted.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        producer.start();
+
+        // depth * renditions frames in flight, the fast writer encodes them all
+        awaitSize(fast.frames, 4);
+        Thread.sleep(100);
+        assertEquals(4, accepted.get());
+        assertEquals(4, fast.frames.size());
+        assertEquals(0, mMatPool.releasedCount());
+
+        resume.countDown();
+        producer.join(TIMEOUT_MILLIS);
+        assertEquals(count, accepted.get());
+        mFanOut.finish();
+        assertEquals(mFrames, slow.frames);
+        assertEquals(mFrames, fast.frames);
+        assertEquals(count, mMatPool.releasedCount());
+    }
+
+    private void fanOut(List<FakeEncoder> encoders, int depth) {
+        List<Rendition> renditions = new ArrayList<>();
+        for (int i = 0; i < encoders.size(); i++) {
+            renditions.add(new Rendition("rendition" + i + ".mp4", 0, 0));
+        }
+        mFanOut = new RenditionFanOut(renditions, new ArrayList<FrameEncoder>(encoders), FPS, depth,
+                mMatPool, StabilizationMetrics.DISABLED);
+        mFanOut.start();
+    }
+
+    private static List<FakeEncoder> encoders(FakeEncoder... encoders) {
+        List<FakeEncoder> list = new ArrayList<>();
+        Collections.addAll(list, encoders);
+        return list;
+    }
+
+    private Mat frame() {
+        Mat frame = new Mat(6, 8, CV_8UC3);
+        mFrames.add(frame);
+        return frame;
+    }
+
+    private static void awaitSize(List<Mat> frames, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (frames.size() < size) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("frames: " + frames.size() + ", expected " + size);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * An encoder which records the frames it is given.
+     */
+    private static class FakeEncoder implements FrameEncoder {
+        final List<Mat> frames = Collections.synchronizedList(new ArrayList<Mat>());
+        final Exception failure = new Exception("encoder failed");
+        final AtomicInteger starts = new AtomicInteger();
+        volatile int width;
+        volatile int height;
+        volatile double frameRate;
+
+        @Override
+        public void start(String path, int width, int height, double frameRate) {
+            starts.incrementAndGet();
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+        }
+
+        @Override
+        public void encode(Mat frame) throws Exception {
+            frames.add(frame);
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    /**
+     * A pool which counts the frames given back to it, they are freed by the test.
+     */
+    private static class CountingPool extends MatPool {
+        private final Map<Mat, Integer> mReleased = new IdentityHashMap<>();
+
+        CountingPool() {
+            super(0);
+        }
+
+        @Override
+        void release(Mat mat) {
+            synchronized (mReleased) {
+                Integer count = mReleased.get(mat);
+                mReleased.put(mat, count == null ? 1 : count + 1);
+            }
+        }
+
+        int released(Mat mat) {
+            synchronized (mReleased) {
+                Integer count = mReleased.get(mat);
+                return count == null ? 0 : count;
+            }
+        }
+
+        int releasedCount() {
+            synchronized (mReleased) {
+                int count = 0;
+                for (int released : mReleased.values()) {
+                    count += released;
+                }
+                return count;
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Admission and cancellation of {@link StabilizationScheduler}, with fake jobs which only wait
+ * to be released: no video and no native code.
+ */
+public class StabilizationSchedulerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /** jobs in the order they started */
+    private final List<FakeJob> mStarted = Collections.synchronizedList(new ArrayList<FakeJob>());
+    private final List<FakeJob> mJobs = new ArrayList<>();
+
+    private StabilizationScheduler mScheduler;
+
+    @After
+    public void tearDown() {
+        for (FakeJob job : mJobs) {
+            job.release.countDown();
+        }
+        if (mScheduler != null) {
+            mScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void jobsWithinTheBudget_runTogether() throws Exception {
+        mScheduler = new StabilizationScheduler(4, 100);
+        FakeJob first = job(2, 40);
+        FakeJob second = job(2, 40);
+        mScheduler.submit(first);
+        mScheduler.submit(second);
+
+        first.awaitStarted();
+        second.awaitStarted();
+        assertEquals(2, mScheduler.getRunningJobs());
+        assertEquals(0, mScheduler.getWaitingJobs());
+    }
+
+    @Test
+    public void jobOverTheCores_waits() throws Exception {
+        mScheduler = new StabilizationScheduler(4, 100);
+        FakeJob first = job(3, 10);
+        FakeJob second = job(2, 10);
+        mScheduler.submit(first);
+        Future<Void> future = mScheduler.submit(second);
+
+        first.awaitStarted();
+        assertEquals(1, mScheduler.getRunningJobs());
+        assertEquals(1, mScheduler.getWaitingJobs());
+        assertFalse(second.hasStarted());
+
+        first.release.countDown();
+        second.awaitStarted();
+        second.release.countDown();
+        future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        awaitRunning(0);
+    }
+
+    @Test
+    public void jobOverTheMemory_waits() throws Exception {
+        mScheduler = new StabilizationScheduler(8, 100);
+        FakeJob first = job(1, 60);
+        FakeJob second = job(1, 60);
+        mScheduler.submit(first);
+        mScheduler.submit(second);
+
+        first.awaitStarted();
+        assertEquals(1, mScheduler.getWaitingJobs());
+        assertFalse(second.hasStarted());
+
+        first.release.countDown();
+        second.awaitStarted();
+        assertEquals(0, mScheduler.getWaitingJobs());
+    }
+
+    @Test
+    public void jobLargerThanTheBudget_runsAlone() throws Exception {
+        mScheduler = new StabilizationScheduler(4, 100);
+        FakeJob large = job(16, 500);
+        FakeJob small = job(1, 1);
+        mScheduler.submit(large);
+        mScheduler.submit(small);
+
+        large.awaitStarted();
+        assertEquals(1, mScheduler.getRunningJobs());
+        assertFalse(small.hasStarted());
+
+        large.release.countDown();
+        small.awaitStarted();
+    }
+
+    @Test
+    public void largeJob_waitsForTheRunningJobs() throws Exception {
+        mScheduler = new StabilizationScheduler(4, 100);
+        FakeJob small = job(1, 10);
+        FakeJob large = job(1, 500);
+        mScheduler.submit(small);
+        mScheduler.submit(large);
+
+        small.awaitStarted();
+        assertFalse(large.hasStarted());
+
+        small.release.countDown();
+        large.awaitStarted();
+    }
+
+    @Test
+    public void waitingJobs_startByPriorityThenInOrder() throws Exception {
+        mScheduler = new StabilizationScheduler(2, 100);
+        FakeJob running = job(2, 10);
+        FakeJob low = job(2, 10);
+        FakeJob high = job(2, 10);
+        FakeJob lowAgain = job(2, 10);
+        FakeJob highAgain = job(2, 10);
+        mScheduler.submit(running);
+        running.awaitStarted();
+        mScheduler.submit(low, 0);
+        mScheduler.submit(high, 5);
+        mScheduler.submit(lowAgain, 0);
+        mScheduler.submit(highAgain, 5);
+        assertEquals(4, mScheduler.getWaitingJobs());
+
+        // the jobs use all the cores, they run one after the other
+        for (FakeJob next : Arrays.asList(running, high, highAgain, low, lowAgain)) {
+            next.awaitStarted();
+            assertEquals(1, mScheduler.getRunningJobs());
+            next.release.countDown();
+        }
+        awaitRunning(0);
+        assertEquals(Arrays.asList(running, high, highAgain, low, lowAgain), mStarted);
+    }
+
+    @Test
+    public void smallJob_doesNotOvertakeTheFirstWaitingJob() throws Exception {
+        mScheduler = new StabilizationScheduler(4, 100);
+        FakeJob running = job(2, 10);
+        FakeJob large = job(4, 10);
+        FakeJob small = job(1, 10);
+        mScheduler.submit(running);
+        mScheduler.submit(large);
+        mScheduler.submit(small);
+
+        running.awaitStarted();
+        // the small job fits beside the running job but waits behind the large one
+        assertEquals(1, mScheduler.getRunningJobs());
+        assertFalse(small.hasStarted());
+
+        running.release.countDown();
+        large.awaitStarted();
+        assertFalse(small.hasStarted());
+
+        large.release.countDown();
+        small.awaitStarted();
+    }
+
+    @Test
+    public void cancelBeforeStart_neverRunsTheJob() throws Exception {
+        mScheduler = new StabilizationScheduler(1, 100);
+        FakeJob running = job(1, 10);
+        FakeJob waiting = job(1, 10);
+        FakeJob next = job(1, 10);
+        mScheduler.submit(running);
+        Future<Void> future = mScheduler.submit(waiting);
+        mScheduler.submit(next);
+        assertEquals(2, mScheduler.getWaitingJobs());
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertEquals(1, mScheduler.getWaitingJobs());
+        assertCancelled(future);
+        // only dropped, a later run of the same job is not cancelled
+        assertFalse(waiting.cancelled);
+
+        // the budget goes to the next job
+        running.release.countDown();
+        next.awaitStarted();
+        next.release.countDown();
+        awaitRunning(0);
+        assertFalse(waiting.hasStarted());
+        assertEquals(Arrays.asList(running, next), mStarted);
+    }
+
+    @Test
+    public void cancelWhileRunning_interruptsTheJob() throws Exception {
+        mScheduler = new StabilizationScheduler(1, 100);
+        FakeJob running = job(1, 10);
+        FakeJob waiting = job(1, 10);
+        Future<Void> future = mScheduler.submit(running);
+        mScheduler.submit(waiting);
+        running.awaitStarted();
+
+        assertTrue(future.cancel(true));
+        assertCancelled(future);
+        assertTrue(running.finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(running.interrupted);
+        assertTrue(running.cancelled);
+
+        // the budget is given back once the job has returned
+        waiting.awaitStarted();
+        assertFalse(waiting.cancelled);
+    }
+
+    @Test
+    public void cancelWithoutInterrupt_letsTheJobFinish() throws Exception {
+        mScheduler = new StabilizationScheduler(1, 100);
+        FakeJob running = job(1, 10);
+        FakeJob waiting = job(1, 10);
+        Future<Void> future = mScheduler.submit(running);
+        mScheduler.submit(waiting);
+        running.awaitStarted();
+
+        assertTrue(future.cancel(false));
+        assertFalse(running.cancelled);
+        // the job still holds its budget
+        assertFalse(waiting.hasStarted());
+
+        running.release.countDown();
+        waiting.awaitStarted();
+        assertFalse(running.interrupted);
+    }
+
+    @Test
+    public void finishedJob_cantBeCancelled() throws Exception {
+        mScheduler = new StabilizationScheduler(1, 100);
+        FakeJob job = job(1, 10);
+        Future<Void> future = mScheduler.submit(job);
+        job.release.countDown();
+        future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertFalse(future.cancel(true));
+        assertFalse(job.cancelled);
+        awaitRunning(0);
+    }
+
+    @Test
+    public void shutdown_cancelsTheWaitingJobs() throws Exception {
+        mScheduler = new StabilizationScheduler(1, 100);
+        FakeJob running = job(1, 10);
+        FakeJob waiting = job(1, 10);
+        Future<Void> runningFuture = mScheduler.submit(running);
+        Future<Void> waitingFuture = mScheduler.submit(waiting);
+        running.awaitStarted();
+
+        mScheduler.shutdown();
+        assertTrue(waitingFuture.isCancelled());
+        assertEquals(0, mScheduler.getWaitingJobs());
+        assertFalse(runningFuture.isDone());
+
+        running.release.countDown();
+        runningFuture.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        awaitRunning(0);
+        assertFalse(waiting.hasStarted());
+
+        try {
+            mScheduler.submit(job(1, 10));
+            fail("submitted after the shutdown");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    private FakeJob job(int cores, long memory) {
+        FakeJob job = new FakeJob(cores, memory);
+        mJobs.add(job);
+        return job;
+    }
+
+    private static void assertCancelled(Future<Void> future) throws Exception {
+        try {
+            future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("job not cancelled");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    /**
+     * Waits for the running jobs to give back their budget, done after their future.
+     */
+    private void awaitRunning(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mScheduler.getRunningJobs() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("running jobs: " + mScheduler.getRunningJobs() + ", expected " + count);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A job with the given needs, it runs until it is released or interrupted.
+     */
+    private class FakeJob extends VideoStabilization {
+        final int cores;
+        final long memory;
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean interrupted;
+        volatile boolean cancelled;
+
+        FakeJob(int cores, long memory) {
+            super("source.mp4", "out", null);
+            this.cores = cores;
+            this.memory = memory;
+        }
+
+        @Override
+        public void stabilizer() {
+            mStarted.add(this);
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        @Override
+        int estimateCores() {
+            return cores;
+        }
+
+        @Override
+        long estimateNativeMemory() {
+            return memory;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            super.cancel();
+        }
+
+        boolean hasStarted() {
+            return started.getCount() == 0;
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue("job not started", started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+}
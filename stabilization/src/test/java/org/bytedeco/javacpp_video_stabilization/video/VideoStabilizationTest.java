@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Monxarat
+ *
+ * Licensed either under the Apache License, Version 2.0, or (at your option)
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation (subject to the "Classpath" exception),
+ * either version 2, or any later version (collectively, the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.gnu.org/licenses/
+ *     http://www.gnu.org/software/classpath/license.html
+ *
+ * or as provided in the LICENSE.txt file that accompanied this code.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.bytedeco.javacpp_video_stabilization.video;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Cancellation of the jobs of {@link VideoStabilization} before they start, on a source which
+ * does not exist: a job that is not cancelled fails as soon as it opens it.
+ */
+public class VideoStabilizationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cancelBeforeStart_cancelsTheJob() throws Exception {
+        VideoStabilization stabilization = stabilization();
+        Events events = new Events();
+        stabilization.setOnStabilizedListener(events);
+
+        stabilization.cancel();
+        stabilization.stabilizer();
+
+        assertEquals(Arrays.asList("start", "cancelled", "finished"), events.list);
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void cancelBeforeStart_cancelsThePreview() throws Exception {
+        VideoStabilization stabilization = stabilization();
+        Events events = new Events();
+        stabilization.setOnStabilizedListener(events);
+
+        stabilization.cancel();
+        stabilization.preview();
+
+        assertEquals(Arrays.asList("start", "cancelled", "finished"), events.list);
+    }
+
+    @Test
+    public void cancelBeforeStart_cancelsTheOnlineJob() throws Exception {
+        VideoStabilization stabilization = stabilization();
+        Events events = new Events();
+        stabilization.setOnStabilizedListener(events);
+
+        stabilization.cancel();
+        stabilization.stabilizerOnline();
+
+        assertEquals(Arrays.asList("start", "cancelled", "finished"), events.list);
+    }
+
+    @Test
+    public void cancelledToken_cancelsTheNextJob() throws Exception {
+        VideoStabilization stabilization = stabilization();
+        Events events = new Events();
+        stabilization.setOnStabilizedListener(events);
+        CancellationToken token = new CancellationToken();
+        stabilization.setCancellationToken(token);
+
+        token.cancel();
+        stabilization.stabilizer();
+
+        assertEquals(Arrays.asList("start", "cancelled", "finished"), events.list);
+    }
+
+    @Test
+    public void cancelledJob_doesNotCancelTheNextOne() throws Exception {
+        VideoStabilization stabilization = stabilization();
+        Events events = new Events();
+        stabilization.setOnStabilizedListener(events);
+
+        stabilization.cancel();
+        stabilization.stabilizer();
+        events.list.clear();
+        stabilization.stabilizer();
+
+        // the source is opened, and missing
+        assertEquals(Arrays.asList("start", "failed", "finished"), events.list);
+    }
+
+    private VideoStabilization stabilization() {
+        return new VideoStabilization(new File(folder.getRoot(), "missing.mp4").getPath(),
+                folder.getRoot().getPath(), new VideoStabConfig());
+    }
+
+    /**
+     * Records the callbacks of a job.
+     */
+    private static class Events implements OnStabilizedListener {
+        final List<String> list = new ArrayList<>();
+
+        @Override
+        public void onStart() {
+            list.add("start");
+        }
+
+        @Override
+        public void onProcess(int indexFrame, opencv_core.Mat frame) {
+            list.add("process");
+        }
+
+        @Override
+        public void onCancelled() {
+            list.add("cancelled");
+        }
+
+        @Override
+        public void onFailed(Exception error) {
+            list.add("failed");
+        }
+
+        @Override
+        public void onFinished() {
+            list.add("finished");
+        }
+    }
+}